@@ -1,12 +1,14 @@
 package genseq.gui;
 
 import genseq.midi.GenSeq;
+import java.awt.FileDialog;
 import java.awt.Menu;
 import java.awt.MenuBar;
 import java.awt.MenuItem;
 import java.awt.Frame;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.io.File;
 import processing.core.PApplet;
 
 public class GenSeqMenuBar extends MenuBar {
@@ -20,6 +22,7 @@ public class GenSeqMenuBar extends MenuBar {
 		MenuItem File_New;
 		MenuItem File_Open;
 		MenuItem File_Save;
+		MenuItem File_Import;
 		MenuItem File_Close;
 		MenuItem File_Exit;
 		
@@ -37,6 +40,7 @@ public class GenSeqMenuBar extends MenuBar {
 	/*** Score ===> */
 		MenuItem Score_Play;
 		MenuItem Score_Stop;
+		MenuItem Score_Render;
 		
 		
 		
@@ -71,6 +75,8 @@ public class GenSeqMenuBar extends MenuBar {
 		File_Open.addActionListener(new File_OpenActionListener());
 		File_Save = new MenuItem("Save");
 		File_Save.addActionListener(new File_SaveActionListener());
+		File_Import = new MenuItem("Import MIDI file...");
+		File_Import.addActionListener(new File_ImportActionListener());
 		File_Close = new MenuItem("Close");
 		File_Close.addActionListener(new File_CloseActionListener());
 		File_Exit = new MenuItem("Exit");
@@ -79,6 +85,7 @@ public class GenSeqMenuBar extends MenuBar {
 		FileMenu.add(File_New);
 		FileMenu.add(File_Open);
 		FileMenu.add(File_Save);
+		FileMenu.add(File_Import);
 		FileMenu.add(File_Close);
 		FileMenu.add(File_Exit);
 		
@@ -105,9 +112,13 @@ public class GenSeqMenuBar extends MenuBar {
 		Score_Play.addActionListener(new Score_PlayActionListener());
 		Score_Stop = new MenuItem("Stop");
 		Score_Stop.addActionListener(new Score_StopActionListener());
+		Score_Render = new MenuItem("Render to MIDI file...");
+		Score_Render.addActionListener(new Score_RenderActionListener());
 		// Add the menu items to the menu
 		ScoreMenu.add(Score_Play);
 		ScoreMenu.add(Score_Stop);
+		ScoreMenu.addSeparator();
+		ScoreMenu.add(Score_Render);
 		
 		add(FileMenu);
 		add(EditMenu);
@@ -130,7 +141,15 @@ public class GenSeqMenuBar extends MenuBar {
 	private class File_OpenActionListener implements ActionListener {
 		
 		public void actionPerformed(ActionEvent e) {
-			System.out.println("File ===> Open");
+			FileDialog fd = new FileDialog(new Frame(), "Open score", FileDialog.LOAD);
+			fd.setFile("*.gsq");
+			fd.setVisible(true);
+			
+			// User cancelled
+			if (null == fd.getFile())
+				return;
+			
+			gs.openScores(new File(fd.getDirectory(), fd.getFile()));
 		}
 		
 	}
@@ -139,11 +158,35 @@ public class GenSeqMenuBar extends MenuBar {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			System.err.println("File ===> Save");
+			FileDialog fd = new FileDialog(new Frame(), "Save score", FileDialog.SAVE);
+			fd.setFile("*.gsq");
+			fd.setVisible(true);
+			
+			// User cancelled
+			if (null == fd.getFile())
+				return;
+			
+			gs.saveScores(new File(fd.getDirectory(), fd.getFile()));
 		}
 		
 	}
 
+	private class File_ImportActionListener implements ActionListener {
+		
+		public void actionPerformed(ActionEvent e) {
+			FileDialog fd = new FileDialog(new Frame(), "Import MIDI file", FileDialog.LOAD);
+			fd.setFile("*.mid");
+			fd.setVisible(true);
+			
+			// User cancelled
+			if (null == fd.getFile())
+				return;
+			
+			gs.importMidi(new File(fd.getDirectory(), fd.getFile()));
+		}
+		
+	}
+	
 	private class File_CloseActionListener implements ActionListener {
 
 		@Override
@@ -170,7 +213,7 @@ public class GenSeqMenuBar extends MenuBar {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			System.err.println("Edit ===> Undo");			
+			gs.undo();
 		}
 		
 	}
@@ -179,7 +222,7 @@ public class GenSeqMenuBar extends MenuBar {
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			System.err.println("Edit ===> Redo");			
+			gs.redo();
 		}
 		
 	}
@@ -216,4 +259,20 @@ public class GenSeqMenuBar extends MenuBar {
 		}
 		
 	}
+	
+	private class Score_RenderActionListener implements ActionListener {
+		
+		public void actionPerformed(ActionEvent e) {
+			FileDialog fd = new FileDialog(new Frame(), "Render to MIDI file", FileDialog.SAVE);
+			fd.setFile("*.mid");
+			fd.setVisible(true);
+			
+			// User cancelled
+			if (null == fd.getFile())
+				return;
+			
+			gs.renderScore(new File(fd.getDirectory(), fd.getFile()), GenSeq.DEFAULT_RENDER_LENGTH);
+		}
+		
+	}
 }
@@ -1,8 +1,10 @@
 package genseq.gui;
 
+import genseq.midi.GenSeq;
 import genseq.midi.MIDIConstants;
 import genseq.midi.MidiCommon;
 import genseq.midi.Note;
+import genseq.midi.Score;
 import genseq.obj.NodeEvent;
 import genseq.obj.Node;
 import java.awt.AWTEvent;
@@ -50,6 +52,7 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 	/*** EXTERNAL REFERENCES ***/
 	private PApplet parent;
 	private Node node;
+	private Score score;		// What node is on, as of when the window opened. null outside GenSeq.
 
 	/*** INTERNAL REFERENCES / CONTROL ***/
 	private ArrayList<NodeEvent> nodeEventList;
@@ -69,6 +72,7 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 	public NodeAttributesWindow(PApplet parent, Node node) {
 		this.parent = parent;
 		this.node = node;
+		score = (parent instanceof GenSeq? ((GenSeq)parent).getActiveScore() : null);
 		
 		nodeEventList = node.getEventList();
 
@@ -427,11 +431,14 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 			ne = new NodeEvent(new Note(REST));
 		}
 
+		editing();
+		
 		// If we're updating the eventList, first remove the old event
 		if (index < nodeEventList.size())
 			nodeEventList.remove(index);
 
 		nodeEventList.add(index, ne);
+		edited();
 	}
 
 	/**
@@ -441,12 +448,39 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 		// Save preferences
 		node.setEventList(nodeEventList);
 
-		// Refresh the node's properties.
+		// Refresh the node's properties, and let playback know about them.
 		node.refresh();
+		publish();
 
 		setVisible(false);
 	}
 	
+	/**
+	 * Let the score know the node is about to change, so the edit can be undone.
+	 */
+	private void editing() {
+		if (null != score)
+			score.nodeEditing(node);
+	}
+	
+	/**
+	 * Let the score know the node has changed, so the edit gets saved. Once
+	 * per edit, after editing(). (nodeEventList is the node's own.) Playback
+	 * hears about it on publish().
+	 */
+	private void edited() {
+		if (null != score)
+			score.nodeEdited(node);
+	}
+	
+	/**
+	 * Commit the score, so that playback picks up our changes.
+	 */
+	private void publish() {
+		if (null != score)
+			score.commit();
+	}
+	
 	// TODO: This method is never called...
 	protected void processKeyEvent(KeyEvent e) {
 		System.out.println("Bing!");
@@ -471,8 +505,11 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 	private class primeBoxItemListener implements ItemListener {
 
 		public void itemStateChanged(ItemEvent e) {
+			editing();
 			node.setPrime(primeBox.getState());
 			node.refresh();
+			edited();
+			publish();
 		}
 
 	}
@@ -480,8 +517,11 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 	private class sonBoxItemListener implements ItemListener {
 		
 		public void itemStateChanged(ItemEvent e) {
+			editing();
 			node.setLegato(sonBox.getState());
 			node.refresh();
+			edited();
+			publish();
 		}
 		
 	}
@@ -525,8 +565,11 @@ public class NodeAttributesWindow extends Frame implements MIDIConstants {
 
 		public void actionPerformed(ActionEvent e) {
 			// Make sure this event exists
-			if (currEvent < nodeEventList.size() && nodeEventList.size() > 0)
+			if (currEvent < nodeEventList.size() && nodeEventList.size() > 0) {
+				editing();
 				nodeEventList.remove(currEvent);
+				edited();
+			}
 
 			if (0 == currEvent)
 				loadEvent(0);
@@ -0,0 +1,141 @@
+/**
+ * AliasTable.java
+ *
+ * Chooses one of a fixed set of items, each with its own likelihood, in
+ * constant time: one random draw and one table lookup, however many
+ * items there are. Building the table (Vose's alias method) takes time
+ * proportional to the number of items, so tables should be built once
+ * and kept until the items or their likelihoods change.
+ *
+ * Tables are immutable once built, so they can be shared between threads.
+ *
+ */
+
+package genseq.midi;
+
+import java.util.List;
+
+public class AliasTable<T> {
+
+	/*** INTERNAL CONTROL ***/
+	private final Object[] items;
+	private final double[] prob;	// Chance of keeping column i rather than taking its alias
+	private final int[] alias;
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param items - The things to choose between.
+	 * @param weights - The likelihood of each item, in the same order. Weights
+	 * need not add up to 1; negative weights count as 0. If every weight is 0,
+	 * all items are equally likely.
+	 */
+	public AliasTable(List<T> items, double[] weights) {
+		int n = items.size();
+		if (weights.length != n) throw new IllegalArgumentException("Need one weight per item");
+
+		this.items = items.toArray();
+		prob = new double[n];
+		alias = new int[n];
+
+		if (0 == n) return;
+
+		double total = 0.0;
+		for (double w : weights)
+			if (w > 0.0) total += w;
+
+		// Scale the weights so that the average column holds exactly 1.0
+		double[] scaled = new double[n];
+		for (int i = 0; i<n; i++)
+			scaled[i] = (total > 0.0? Math.max(weights[i], 0.0) * n / total : 1.0);
+
+		// Work lists of under-full and over-full columns, kept as stacks
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int ns = 0, nl = 0;
+		for (int i = 0; i<n; i++) {
+			if (scaled[i] < 1.0)
+				small[ns++] = i;
+			else
+				large[nl++] = i;
+		}
+
+		// Top up each under-full column with part of an over-full one
+		while (ns > 0 && nl > 0) {
+			int s = small[--ns];
+			int l = large[--nl];
+
+			prob[s] = scaled[s];
+			alias[s] = l;
+
+			scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+			if (scaled[l] < 1.0)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+
+		// Whatever is left is full, give or take rounding error
+		while (nl > 0) {
+			int l = large[--nl];
+			prob[l] = 1.0;
+			alias[l] = l;
+		}
+		while (ns > 0) {
+			int s = small[--ns];
+			prob[s] = 1.0;
+			alias[s] = s;
+		}
+	}
+
+	/**
+	 * sampleIndex(RandomStream rand)
+	 *
+	 * @param rand - Where to get randomness from.
+	 * @return The index of the chosen item, or -1 if there are no items.
+	 */
+	public int sampleIndex(RandomStream rand) {
+		int n = prob.length;
+		if (0 == n) return -1;
+
+		// One draw picks both the column and the coin flip within it
+		double u = rand.nextDouble() * n;
+		int i = (int)u;
+		if (i >= n) i = n - 1;
+
+		return (u - i < prob[i]? i : alias[i]);
+	}
+
+	/**
+	 * sample(RandomStream rand)
+	 *
+	 * @param rand - Where to get randomness from.
+	 * @return The chosen item, or null if there are no items.
+	 */
+	@SuppressWarnings("unchecked")
+	public T sample(RandomStream rand) {
+		int i = sampleIndex(rand);
+		return (i < 0? null : (T)items[i]);
+	}
+
+	/**
+	 * get(int i)
+	 *
+	 * @param i - An index
+	 * @return The i-th item the table was built with.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int i) {
+		return (T)items[i];
+	}
+
+	/**
+	 * size()
+	 *
+	 * @return How many items the table chooses between.
+	 */
+	public int size() {
+		return items.length;
+	}
+
+}
@@ -0,0 +1,498 @@
+/**
+ * EditHistory.java
+ *
+ * Undo and redo. The history listens to the scores (see
+ * Score.EditListener) and keeps each edit as a command that knows how to
+ * take itself back and make itself again. Everything between a
+ * Score.beginEdit() and its endEdit() (a paste, deleting the selection,
+ * deleting a Node and its Edges) is one command.
+ *
+ * Commands hold on to the Nodes and Edges they're about, not copies of
+ * them: taking back a paste just takes the same Nodes off the score, and
+ * a move is the Nodes plus how far they went. Only node attribute edits
+ * keep anything more, namely the events from before and after. The
+ * history keeps a set number of edits, oldest dropped first.
+ *
+ * Undoing and redoing are edits like any other, as far as the scores'
+ * other listeners (e.g. the EditJournal) are concerned.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+public class EditHistory implements Score.EditListener {
+
+	/*** INTERNAL CONSTANTS ***/
+	public static final int DEFAULT_LIMIT = 200;	// Edits kept
+
+	/*** INTERNAL CONTROL ***/
+	private int limit;
+	private LinkedList<Command> undos;		// Newest last
+	private LinkedList<Command> redos;		// Next to redo last
+	private Compound open;				// Edit being put together, between editBegun() and editEnded()
+	private boolean applying;			// Undoing or redoing: what the scores report is our own doing
+	private HashMap<Node, Attributes> editing;	// What Nodes being edited were like beforehand
+	private ArrayList<Score> layers;
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param limit - How many edits can be undone
+	 */
+	public EditHistory(int limit) {
+		if (limit < 1) throw new IllegalArgumentException("The history must hold at least one edit");
+
+		this.limit = limit;
+		undos = new LinkedList<Command>();
+		redos = new LinkedList<Command>();
+		open = null;
+		applying = false;
+		editing = new HashMap<Node, Attributes>();
+		layers = new ArrayList<Score>();
+	}
+
+	public EditHistory() {
+		this(DEFAULT_LIMIT);
+	}
+
+	/**
+	 * attach(List<Score> scores)
+	 *
+	 * Keep track of these scores' edits, instead of the ones before. The
+	 * history starts out empty.
+	 *
+	 * @param scores - The scores (layers) now being edited
+	 */
+	public void attach(List<Score> scores) {
+		for (Score s : layers)
+			s.removeEditListener(this);
+
+		clear();
+		layers = new ArrayList<Score>(scores);
+		for (Score s : layers)
+			s.addEditListener(this);
+	}
+
+	/**
+	 * undo()
+	 *
+	 * Take back the latest edit.
+	 *
+	 * @return The score that was changed (to be committed), or null if
+	 * there was nothing to undo.
+	 */
+	public Score undo() {
+		if (undos.isEmpty())
+			return null;
+
+		Command c = undos.removeLast();
+		applying = true;
+		try {
+			c.undo();
+		} finally {
+			applying = false;
+		}
+		redos.addLast(c);
+
+		return c.score;
+	}
+
+	/**
+	 * redo()
+	 *
+	 * Make the latest undone edit again.
+	 *
+	 * @return The score that was changed (to be committed), or null if
+	 * there was nothing to redo.
+	 */
+	public Score redo() {
+		if (redos.isEmpty())
+			return null;
+
+		Command c = redos.removeLast();
+		applying = true;
+		try {
+			c.redo();
+		} finally {
+			applying = false;
+		}
+		undos.addLast(c);
+
+		return c.score;
+	}
+
+	public boolean canUndo() {
+		return ! undos.isEmpty();
+	}
+
+	public boolean canRedo() {
+		return ! redos.isEmpty();
+	}
+
+	/**
+	 * clear() - Forget every edit.
+	 */
+	public void clear() {
+		undos.clear();
+		redos.clear();
+		open = null;
+		editing.clear();
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * setLimit(int limit)
+	 *
+	 * @param limit - How many edits can be undone. The oldest go if there
+	 * are more than that already.
+	 */
+	public void setLimit(int limit) {
+		if (limit < 1) throw new IllegalArgumentException("The history must hold at least one edit");
+
+		this.limit = limit;
+		while (undos.size() > limit)
+			undos.removeFirst();
+		while (redos.size() > limit)
+			redos.removeFirst();
+	}
+
+
+	/*******************************
+	 * EDITS (Score.EditListener)
+	 *******************************/
+
+	public void editBegun(Score s) {
+		if (! applying)
+			open = new Compound(s);
+	}
+
+	public void editEnded(Score s) {
+		if (null == open || open.score != s)
+			return;
+
+		Compound c = open;
+		open = null;
+		if (! c.commands.isEmpty())
+			push(1 == c.commands.size()? c.commands.get(0) : c);
+	}
+
+	public void nodesAdded(Score s, Collection<Node> nodes) {
+		record(new AddNodes(s, nodes.toArray(new Node[nodes.size()])));
+	}
+
+	public void nodesRemoved(Score s, Collection<Node> nodes) {
+		record(new RemoveNodes(s, nodes.toArray(new Node[nodes.size()])));
+	}
+
+	public void nodesMoved(Score s, Collection<Node> nodes, int dx, int dy) {
+		record(new MoveNodes(s, nodes.toArray(new Node[nodes.size()]), dx, dy));
+	}
+
+	public void nodeEditing(Score s, Node n) {
+		if (! applying && ! editing.containsKey(n))
+			editing.put(n, new Attributes(n));
+	}
+
+	public void nodeEdited(Score s, Node n) {
+		// Without knowing what n was like before, there's nothing to go back to.
+		// (Nothing has changed since the last nodeEdited(), if that's the case.)
+		Attributes before = editing.remove(n);
+		if (null != before)
+			record(new EditNode(s, n, before, new Attributes(n)));
+	}
+
+	public void edgesAdded(Score s, Collection<Edge> edges) {
+		record(new AddEdges(s, edges.toArray(new Edge[edges.size()])));
+	}
+
+	public void edgesRemoved(Score s, Collection<Edge> edges) {
+		record(new RemoveEdges(s, edges.toArray(new Edge[edges.size()])));
+	}
+
+	public void metaNodeAdded(Score s, MetaNode m) {
+		record(new AddMetaNode(s, m, m.getNodes().toArray(new Node[m.getNodes().size()])));
+	}
+
+	public void metaNodeRemoved(Score s, MetaNode m, Collection<Node> contents) {
+		record(new RemoveMetaNode(s, m, contents.toArray(new Node[contents.size()])));
+	}
+
+	public void seedChanged(Score s) {
+		// Not an edit to the score itself: nothing to undo
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private void record(Command c) {
+		if (applying)
+			return;
+
+		if (null != open && open.score == c.score)
+			open.commands.add(c);
+		else
+			push(c);
+	}
+
+	private void push(Command c) {
+		undos.addLast(c);
+		if (undos.size() > limit)
+			undos.removeFirst();
+
+		// A new edit means the undone ones can't be redone
+		redos.clear();
+	}
+
+	private static void register(Edge[] edges) {
+		for (Edge e : edges) {
+			e.getSource().registerEdge(e);
+			e.getDestination().registerEdge(e);
+		}
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * Command - One edit, which can be taken back and made again.
+	 */
+	private static abstract class Command {
+
+		protected final Score score;
+
+		protected Command(Score score) {
+			this.score = score;
+		}
+
+		public abstract void undo();
+
+		public abstract void redo();
+
+	}
+
+	/**
+	 * Compound - Several edits, taken back in reverse.
+	 */
+	private static class Compound extends Command {
+
+		private final ArrayList<Command> commands;
+
+		public Compound(Score score) {
+			super(score);
+			commands = new ArrayList<Command>();
+		}
+
+		public void undo() {
+			for (int i = commands.size()-1; i>=0; i--)
+				commands.get(i).undo();
+		}
+
+		public void redo() {
+			for (int i = 0; i<commands.size(); i++)
+				commands.get(i).redo();
+		}
+
+	}
+
+	private static class AddNodes extends Command {
+
+		private final Node[] nodes;
+
+		public AddNodes(Score score, Node[] nodes) {
+			super(score);
+			this.nodes = nodes;
+		}
+
+		public void undo() {
+			score.removeNodes(Arrays.asList(nodes));
+		}
+
+		public void redo() {
+			score.addNodes(Arrays.asList(nodes));
+		}
+
+	}
+
+	private static class RemoveNodes extends AddNodes {
+
+		public RemoveNodes(Score score, Node[] nodes) {
+			super(score, nodes);
+		}
+
+		public void undo() {
+			super.redo();
+		}
+
+		public void redo() {
+			super.undo();
+		}
+
+	}
+
+	private static class MoveNodes extends Command {
+
+		private final Node[] nodes;
+		private final int dx, dy;
+
+		public MoveNodes(Score score, Node[] nodes, int dx, int dy) {
+			super(score);
+			this.nodes = nodes;
+			this.dx = dx;
+			this.dy = dy;
+		}
+
+		public void undo() {
+			score.moveNodes(Arrays.asList(nodes), -dx, -dy);
+		}
+
+		public void redo() {
+			score.moveNodes(Arrays.asList(nodes), dx, dy);
+		}
+
+	}
+
+	private static class EditNode extends Command {
+
+		private final Node node;
+		private final Attributes before, after;
+
+		public EditNode(Score score, Node node, Attributes before, Attributes after) {
+			super(score);
+			this.node = node;
+			this.before = before;
+			this.after = after;
+		}
+
+		public void undo() {
+			before.restore(node);
+			score.nodeEdited(node);
+		}
+
+		public void redo() {
+			after.restore(node);
+			score.nodeEdited(node);
+		}
+
+	}
+
+	private static class AddEdges extends Command {
+
+		private final Edge[] edges;
+
+		public AddEdges(Score score, Edge[] edges) {
+			super(score);
+			this.edges = edges;
+		}
+
+		public void undo() {
+			score.removeEdges(Arrays.asList(edges));
+		}
+
+		public void redo() {
+			// Removing them unregistered them from their Nodes
+			register(edges);
+			score.addEdges(Arrays.asList(edges));
+		}
+
+	}
+
+	private static class RemoveEdges extends AddEdges {
+
+		public RemoveEdges(Score score, Edge[] edges) {
+			super(score, edges);
+		}
+
+		public void undo() {
+			super.redo();
+		}
+
+		public void redo() {
+			super.undo();
+		}
+
+	}
+
+	private static class AddMetaNode extends Command {
+
+		private final MetaNode meta;
+		private final Node[] contents;
+
+		public AddMetaNode(Score score, MetaNode meta, Node[] contents) {
+			super(score);
+			this.meta = meta;
+			this.contents = contents;
+		}
+
+		public void undo() {
+			score.removeMetaNode(meta);
+		}
+
+		public void redo() {
+			score.encapsulateNodes(meta, Arrays.asList(contents));
+		}
+
+	}
+
+	private static class RemoveMetaNode extends AddMetaNode {
+
+		public RemoveMetaNode(Score score, MetaNode meta, Node[] contents) {
+			super(score, meta, contents);
+		}
+
+		public void undo() {
+			super.redo();
+		}
+
+		public void redo() {
+			super.undo();
+		}
+
+	}
+
+	/**
+	 * Attributes - What can be changed about a Node in NodeAttributesWindow.
+	 */
+	private static class Attributes {
+
+		private final boolean prime, legato;
+		private final NodeEvent[] events;	// Events are replaced when edited, never changed
+
+		public Attributes(Node n) {
+			prime = n.isPrimeNode();
+			legato = n.isLegato();
+			events = n.getEventList().toArray(new NodeEvent[n.getEventList().size()]);
+		}
+
+		/**
+		 * restore(Node n) - Make n like this again. Its event list stays the
+		 * same list (NodeAttributesWindow may be holding on to it).
+		 */
+		public void restore(Node n) {
+			n.setPrime(prime);
+			n.setLegato(legato);
+
+			ArrayList<NodeEvent> list = n.getEventList();
+			list.clear();
+			list.addAll(Arrays.asList(events));
+			n.setEventList(list);
+			n.refresh();
+		}
+
+	}
+
+}
@@ -0,0 +1,848 @@
+/**
+ * EditJournal.java
+ *
+ * Autosave. Every edit made to the scores is written down, as it's made,
+ * in an append-only journal; after a crash, the last snapshot plus the
+ * journal since then gives back what was on screen (see recover()).
+ *
+ * The GUI thread only turns each edit into a record (a few bytes per
+ * Node touched) and drops it in a queue. A writer thread of its own
+ * appends the records to the journal, and every so often compacts it:
+ * it reads the last snapshot, replays the journal over it and saves the
+ * result as the next snapshot, with an empty journal to go with it. It
+ * does all that with the scores as plain data (see ScoreImage), so the
+ * writer never touches the scores being edited, or makes Nodes of its
+ * own, and nothing here ever waits for the disk on the GUI or playback
+ * threads. (Compacting needs room for a second copy of the scores while
+ * it runs.)
+ *
+ * Files, in the journal's directory, for generation g:
+ *
+ * 	autosave-g.gsq		The snapshot (a ScoreFile). Missing for generation 0.
+ * 	autosave-g.journal	int MAGIC, int VERSION, then records:
+ * 						int length, int CRC-32, length bytes of record
+ *
+ * Records name Nodes by serial (see Node.getSerial()), and Edges by the
+ * serials of their ends. A record that was only half written when the
+ * program died fails its CRC, and it and whatever follows it are ignored.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+public class EditJournal implements Score.EditListener {
+
+	/*** FORMAT ***/
+	public static final int MAGIC = 0x47534a4c;	// "GSJL"
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * 4;
+
+	// Records. Each starts with its kind (a byte) and the layer (an int).
+	private static final int ADD_NODES = 1;		// count, then per Node: serial, x, y, flags, events
+	private static final int MOVE_NODES = 3;	// dx, dy, count, serials
+	private static final int EDIT_NODE = 4;		// serial, flags, events
+	private static final int ADD_EDGES = 5;		// count, then per Edge: source, destination, likelihood (double)
+	private static final int ADD_META_NODE = 7;	// serial, metaID, x, y, flags, events, count, member serials
+	private static final int REMOVE_NODES = 8;	// count, serials
+	private static final int REMOVE_EDGES = 9;	// count, then per Edge: source, destination
+	private static final int REMOVE_META_NODE = 10;	// serial
+	private static final int SEED = 11;		// seed (long)
+	// Events are written as: count, then per event: type, likelihood (double), notes, pitch and velocity of each
+
+	private static final int PRIME = 1;
+	private static final int LEGATO = 2;
+
+	/*** INTERNAL CONSTANTS ***/
+	public static final int DEFAULT_COMPACT_AFTER = 10000;	// Records in a journal before it's compacted
+	private static final String PREFIX = "autosave-";
+
+	/*** INTERNAL CONTROL ***/
+	private final File dir;
+	private final int compactAfter;
+	private ArrayList<Score> layers;		// What's being journaled. GUI thread only.
+	private final ConcurrentLinkedQueue<Object> queue;	// Records (byte[]), or a File to start again from
+	private volatile boolean running;
+	private Thread writer;
+
+	// Writer thread only (and recover(), before it starts)
+	private int generation;
+	private long validLength;		// How much of the journal is good records
+	private int records;			// How many records are in the journal
+	private DataOutputStream out;
+	private FileOutputStream outFile;
+	private boolean broken;			// Stop trying once the disk has let us down
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param dir - Where the snapshots and journals go
+	 * @param compactAfter - How many records a journal gets before it's compacted
+	 */
+	public EditJournal(File dir, int compactAfter) {
+		if (compactAfter < 1) throw new IllegalArgumentException("Journals must hold at least one record");
+
+		this.dir = dir;
+		this.compactAfter = compactAfter;
+		layers = new ArrayList<Score>();
+		queue = new ConcurrentLinkedQueue<Object>();
+		running = false;
+
+		generation = 0;
+		validLength = 0;
+		records = 0;
+		broken = false;
+	}
+
+	public EditJournal(File dir) {
+		this(dir, DEFAULT_COMPACT_AFTER);
+	}
+
+	/**
+	 * defaultDirectory()
+	 *
+	 * @return Where autosaves go unless told otherwise.
+	 */
+	public static File defaultDirectory() {
+		return new File(System.getProperty("user.home"), "." + GenSeq.NAME.toLowerCase());
+	}
+
+	/**
+	 * recover(GenSeq parent)
+	 *
+	 * Load the latest snapshot and replay its journal. Call once, before
+	 * start(). Takes as long as it takes: this is the one time the caller
+	 * waits on the journal.
+	 *
+	 * @param parent - The applet the scores will be drawn on
+	 * @return The scores as they were last edited, published. At least one.
+	 */
+	public ArrayList<Score> recover(GenSeq parent) {
+		generation = latestGeneration();
+
+		ArrayList<Score> restored;
+		try {
+			ArrayList<ScoreImage> images = load(generation);
+			validLength = replay(journalFile(generation), images);
+			restored = ScoreFile.build(images, parent);
+			if (records > 0)
+				System.err.println("Recovered "+records+" edits from "+journalFile(generation));
+		} catch (IOException e) {
+			// Leave the damaged files be, and start again after them
+			System.err.println("Could not recover the autosave in "+dir);
+			e.printStackTrace();
+
+			restored = new ArrayList<Score>();
+			generation++;
+			validLength = 0;
+			records = 0;
+		}
+
+		if (restored.isEmpty())
+			restored.add(new Score(parent));
+		for (Score s : restored)
+			s.publish();
+
+		return restored;
+	}
+
+	/**
+	 * start(List<Score> scores)
+	 *
+	 * Start journaling every edit made to some scores.
+	 *
+	 * @param scores - The scores (layers), as recover() gave them back
+	 */
+	public synchronized void start(List<Score> scores) {
+		if (running) return;
+
+		attach(scores);
+		running = true;
+		writer = new Thread(new Writer(), "EditJournal");
+		writer.setDaemon(true);
+		writer.start();
+
+		// Layers that began in this journal have no snapshot to keep their seeds
+		for (Score s : layers)
+			seedChanged(s);
+
+		// Whatever hasn't been written yet gets written on the way out
+		Runtime.getRuntime().addShutdownHook(new Thread(new Closer(), "EditJournal shutdown"));
+	}
+
+	/**
+	 * rebase(List<Score> scores, File base)
+	 *
+	 * Start journaling a different set of scores, which were just opened
+	 * from a file. The file is copied to be the next snapshot (by the
+	 * writer thread) and the old journal is done with.
+	 *
+	 * @param scores - The scores (layers) now being edited
+	 * @param base - The file they were opened from
+	 */
+	public void rebase(List<Score> scores, File base) {
+		attach(scores);
+		enqueue(base);
+	}
+
+	/**
+	 * close() - Write whatever is waiting to be written, and stop.
+	 */
+	public synchronized void close() {
+		if (! running) return;
+
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+	}
+
+
+	/*******************************
+	 * EDITS (Score.EditListener)
+	 *
+	 * On the GUI thread: make the record, and let the writer have it.
+	 *******************************/
+
+	public void nodesAdded(Score s, Collection<Node> nodes) {
+		Record r = record(ADD_NODES, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(nodes.size());
+			for (Node n : nodes) {
+				r.writeInt(s.serialOf(n));
+				r.writeInt(n.getX());
+				r.writeInt(n.getY());
+				writeAttributes(r, n);
+			}
+		} catch (IOException e) {
+			// Never happens: it's all in memory
+		}
+		send(r);
+	}
+
+	public void nodesRemoved(Score s, Collection<Node> nodes) {
+		Record r = record(REMOVE_NODES, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(nodes.size());
+			for (Node n : nodes)
+				r.writeInt(s.serialOf(n));
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void nodesMoved(Score s, Collection<Node> nodes, int dx, int dy) {
+		Record r = record(MOVE_NODES, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(dx);
+			r.writeInt(dy);
+			r.writeInt(nodes.size());
+			for (Node n : nodes)
+				r.writeInt(s.serialOf(n));
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void nodeEditing(Score s, Node n) {
+		// Nothing's changed yet
+	}
+
+	public void nodeEdited(Score s, Node n) {
+		Record r = record(EDIT_NODE, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(s.serialOf(n));
+			writeAttributes(r, n);
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void edgesAdded(Score s, Collection<Edge> edges) {
+		Record r = record(ADD_EDGES, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(edges.size());
+			for (Edge e : edges) {
+				r.writeInt(s.serialOf(e.getSource()));
+				r.writeInt(s.serialOf(e.getDestination()));
+				r.writeDouble(e.getLikelihood());
+			}
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void edgesRemoved(Score s, Collection<Edge> edges) {
+		Record r = record(REMOVE_EDGES, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(edges.size());
+			for (Edge e : edges) {
+				r.writeInt(s.serialOf(e.getSource()));
+				r.writeInt(s.serialOf(e.getDestination()));
+			}
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void metaNodeAdded(Score s, MetaNode m) {
+		Record r = record(ADD_META_NODE, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(s.serialOf(m));
+			r.writeInt(m.getMetaID());
+			r.writeInt(m.getX());
+			r.writeInt(m.getY());
+			writeAttributes(r, m);
+			r.writeInt(m.getNodes().size());
+			for (Node n : m.getNodes())
+				r.writeInt(s.serialOf(n));
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+
+	public void metaNodeRemoved(Score s, MetaNode m, Collection<Node> contents) {
+		Record r = record(REMOVE_META_NODE, s);
+		if (null == r) return;
+
+		try {
+			r.writeInt(s.serialOf(m));
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void seedChanged(Score s) {
+		Record r = record(SEED, s);
+		if (null == r) return;
+
+		try {
+			r.writeLong(s.getSeed());
+		} catch (IOException e) {
+		}
+		send(r);
+	}
+
+	public void editBegun(Score s) {
+		// Every record stands on its own
+	}
+
+	public void editEnded(Score s) {
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	/**
+	 * attach(List<Score> scores) - Listen to these scores instead of the
+	 * ones before. GUI thread only.
+	 */
+	private void attach(List<Score> scores) {
+		for (Score s : layers)
+			s.removeEditListener(this);
+
+		layers = new ArrayList<Score>(scores);
+		for (Score s : layers)
+			s.addEditListener(this);
+	}
+
+	/**
+	 * record(int kind, Score s)
+	 *
+	 * @return A new record about s, with its header written, ready for the
+	 * rest. null if s isn't being journaled.
+	 */
+	private Record record(int kind, Score s) {
+		int layer = layers.indexOf(s);
+		if (layer < 0 || ! running)
+			return null;
+
+		Record r = new Record();
+		try {
+			r.writeByte(kind);
+			r.writeInt(layer);
+		} catch (IOException e) {
+		}
+		return r;
+	}
+
+	private void send(Record r) {
+		enqueue(r.bytes());
+	}
+
+	private void enqueue(Object job) {
+		if (! running) return;
+
+		queue.offer(job);
+		LockSupport.unpark(writer);
+	}
+
+	private static void writeAttributes(DataOutputStream r, Node n) throws IOException {
+		r.writeInt((n.isPrimeNode()? PRIME : 0) | (n.isLegato()? LEGATO : 0));
+
+		ArrayList<NodeEvent> events = n.getEventList();
+		r.writeInt(events.size());
+		for (NodeEvent ev : events) {
+			r.writeInt(ev.getType());
+			r.writeDouble(ev.getLikelihood());
+			r.writeInt(ev.getNotes().size());
+			for (Note note : ev.getNotes()) {
+				r.writeInt(note.getPitch());
+				r.writeInt(note.getVelocity());
+			}
+		}
+	}
+
+	/**
+	 * readEvents(DataInputStream r) - Read the events written by
+	 * writeAttributes(), after the flags.
+	 */
+	private static ArrayList<NodeEvent> readEvents(DataInputStream r) throws IOException {
+		int count = r.readInt();
+		ArrayList<NodeEvent> events = new ArrayList<NodeEvent>(count);
+		for (int i = 0; i<count; i++) {
+			int type = r.readInt();
+			double likelihood = r.readDouble();
+			int size = r.readInt();
+			ArrayList<Note> notes = new ArrayList<Note>(size);
+			for (int k = 0; k<size; k++) {
+				int pitch = r.readInt();
+				notes.add(new Note(pitch, r.readInt()));
+			}
+
+			if (NodeEvent.TYPE_CHORD == type || notes.size() != 1)
+				events.add(new NodeEvent(notes, likelihood));
+			else
+				events.add(new NodeEvent(notes.get(0), likelihood));
+		}
+
+		return events;
+	}
+
+	/**
+	 * nodeFlags(int flags)
+	 *
+	 * @return The ScoreFile Node flags for the flags in a record.
+	 */
+	private static int nodeFlags(int flags) {
+		return ((flags & PRIME) != 0? ScoreFile.NODE_PRIME : 0) | ((flags & LEGATO) != 0? ScoreFile.NODE_LEGATO : 0);
+	}
+
+	private static int[] readSerials(DataInputStream r, int count) throws IOException {
+		int[] serials = new int[count];
+		for (int i = 0; i<count; i++)
+			serials[i] = r.readInt();
+		return serials;
+	}
+
+	/**
+	 * load(int generation)
+	 *
+	 * @return The scores in a generation's snapshot (none if it hasn't got one).
+	 */
+	private ArrayList<ScoreImage> load(int generation) throws IOException {
+		File f = snapshotFile(generation);
+		if (! f.exists())
+			return new ArrayList<ScoreImage>();
+
+		return ScoreFile.readImages(f);
+	}
+
+	/**
+	 * replay(File f, ArrayList<ScoreImage> layers)
+	 *
+	 * Make the edits in a journal to some scores, counting them in `records'.
+	 * Layers the journal mentions that aren't there yet are added.
+	 *
+	 * @return How far into f the good records go.
+	 */
+	private long replay(File f, ArrayList<ScoreImage> layers) throws IOException {
+		records = 0;
+		if (! f.exists())
+			return 0;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() > VERSION)
+				throw new IOException(f+" is not an edit journal this version understands");
+
+			long valid = HEADER_SIZE;
+			CRC32 crc = new CRC32();
+			while (true) {
+				byte[] body;
+				try {
+					int length = in.readInt();
+					int sum = in.readInt();
+					if (length < 5 || length > f.length() - valid)
+						break;
+
+					body = new byte[length];
+					in.readFully(body);
+					crc.reset();
+					crc.update(body);
+					if ((int)crc.getValue() != sum)
+						break;
+				} catch (EOFException e) {
+					break;
+				}
+
+				apply(new DataInputStream(new ByteArrayInputStream(body)), layers);
+				valid += 8 + body.length;
+				records++;
+			}
+
+			return valid;
+		} catch (EOFException e) {
+			// Not even a header: nothing was journaled
+			return 0;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * apply(DataInputStream r, ArrayList<ScoreImage> layers) - Make the edit
+	 * in one record.
+	 */
+	private static void apply(DataInputStream r, ArrayList<ScoreImage> layers) throws IOException {
+		int kind = r.readByte();
+		int layer = r.readInt();
+		if (layer < 0 || layer > layers.size() + 1000)
+			throw new IOException("Edit journal is damaged");
+		while (layers.size() <= layer)
+			layers.add(new ScoreImage(System.nanoTime()));
+
+		ScoreImage s = layers.get(layer);
+		switch (kind) {
+		case ADD_NODES: {
+			int count = r.readInt();
+			for (int i = 0; i<count; i++) {
+				int serial = r.readInt();
+				int x = r.readInt();
+				int y = r.readInt();
+				int flags = nodeFlags(r.readInt());
+				s.addNode(serial, x, y, flags, readEvents(r));
+			}
+			break;
+		}
+
+		case REMOVE_NODES:
+			s.removeNodes(readSerials(r, r.readInt()));
+			break;
+
+		case MOVE_NODES: {
+			int dx = r.readInt(), dy = r.readInt();
+			s.moveNodes(readSerials(r, r.readInt()), dx, dy);
+			break;
+		}
+
+		case EDIT_NODE: {
+			int serial = r.readInt();
+			int flags = nodeFlags(r.readInt());
+			s.editNode(serial, flags, readEvents(r));
+			break;
+		}
+
+		case ADD_EDGES: {
+			int count = r.readInt();
+			for (int i = 0; i<count; i++) {
+				int from = r.readInt(), to = r.readInt();
+				s.addEdge(from, to, r.readDouble());
+			}
+			break;
+		}
+
+		case REMOVE_EDGES: {
+			int count = r.readInt();
+			for (int i = 0; i<count; i++) {
+				int from = r.readInt();
+				s.removeEdge(from, r.readInt());
+			}
+			break;
+		}
+
+		case REMOVE_META_NODE:
+			s.removeMetaNode(r.readInt());
+			break;
+
+		case SEED:
+			s.seed = r.readLong();
+			break;
+
+		case ADD_META_NODE: {
+			int serial = r.readInt();
+			int metaID = r.readInt();
+			int x = r.readInt();
+			int y = r.readInt();
+			int flags = nodeFlags(r.readInt());
+			ArrayList<NodeEvent> events = readEvents(r);
+			s.addMetaNode(serial, metaID, x, y, flags, events, readSerials(r, r.readInt()));
+			break;
+		}
+
+		default:
+			throw new IOException("Edit journal is damaged");
+		}
+	}
+
+	private int latestGeneration() {
+		int latest = 0;
+		String[] names = dir.list();
+		if (null == names)
+			return latest;
+
+		for (String name : names) {
+			if (! name.startsWith(PREFIX))
+				continue;
+
+			int dot = name.indexOf('.', PREFIX.length());
+			try {
+				if (dot > 0)
+					latest = Math.max(latest, Integer.parseInt(name.substring(PREFIX.length(), dot)));
+			} catch (NumberFormatException e) {
+			}
+		}
+
+		return latest;
+	}
+
+	private File snapshotFile(int generation) {
+		return new File(dir, PREFIX + generation + ".gsq");
+	}
+
+	private File journalFile(int generation) {
+		return new File(dir, PREFIX + generation + ".journal");
+	}
+
+
+	/*** WRITER THREAD ***/
+
+	/**
+	 * append(byte[] record) - Add a record to the journal, opening it first
+	 * if need be.
+	 */
+	private void append(byte[] record) throws IOException {
+		if (null == out)
+			openJournal();
+
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		out.writeInt(record.length);
+		out.writeInt((int)crc.getValue());
+		out.write(record);
+		records++;
+
+		if (records >= compactAfter)
+			compact(null);
+	}
+
+	/**
+	 * openJournal() - Carry on with this generation's journal, after the last
+	 * good record in it, or start it if there isn't one.
+	 */
+	private void openJournal() throws IOException {
+		dir.mkdirs();
+		File f = journalFile(generation);
+		boolean fresh = validLength < HEADER_SIZE || ! f.exists();
+
+		outFile = new FileOutputStream(f, ! fresh);
+		FileChannel ch = outFile.getChannel();
+		if (! fresh)
+			ch.truncate(validLength);
+		out = new DataOutputStream(new BufferedOutputStream(outFile));
+		if (fresh) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+	}
+
+	/**
+	 * flush() - Get everything written so far onto the disk.
+	 */
+	private void flush() throws IOException {
+		if (null == out)
+			return;
+
+		out.flush();
+		outFile.getChannel().force(false);
+	}
+
+	private void closeJournal() throws IOException {
+		if (null == out)
+			return;
+
+		flush();
+		out.close();
+		out = null;
+		outFile = null;
+	}
+
+	/**
+	 * compact(File base)
+	 *
+	 * Start the next generation: its snapshot is this one's with the journal
+	 * replayed over it, or a copy of base if there is one. Then this
+	 * generation's files go.
+	 */
+	private void compact(File base) throws IOException {
+		closeJournal();
+		dir.mkdirs();
+
+		int next = generation + 1;
+		File tmp = new File(dir, PREFIX + next + ".tmp");
+		if (null != base)
+			copy(base, tmp);
+		else {
+			ArrayList<ScoreImage> layers = load(generation);
+			replay(journalFile(generation), layers);
+			ScoreFile.writeImages(tmp, layers);
+		}
+
+		File snapshot = snapshotFile(next);
+		if (! tmp.renameTo(snapshot))
+			throw new IOException("Could not move "+tmp+" to "+snapshot);
+
+		// The new snapshot has it all; the old files can go
+		snapshotFile(generation).delete();
+		journalFile(generation).delete();
+
+		generation = next;
+		validLength = 0;
+		records = 0;
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		try {
+			FileOutputStream o = new FileOutputStream(to);
+			try {
+				FileChannel src = in.getChannel(), dst = o.getChannel();
+				long size = src.size();
+				for (long done = 0; done < size; )
+					done += src.transferTo(done, size - done, dst);
+				dst.force(false);
+			} finally {
+				o.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * Record - A record being made, in memory.
+	 */
+	private static class Record extends DataOutputStream {
+
+		public Record() {
+			super(new ByteArrayOutputStream());
+		}
+
+		public byte[] bytes() {
+			return ((ByteArrayOutputStream)out).toByteArray();
+		}
+
+	}
+
+	private class Writer implements Runnable {
+
+		public void run() {
+			while (true) {
+				Object job = queue.poll();
+				if (null == job) {
+					// Nothing to do: make sure what's written is on the disk, then wait
+					try {
+						if (! broken)
+							flush();
+					} catch (IOException e) {
+						fail(e);
+					}
+
+					if (! running && queue.isEmpty())
+						break;
+					LockSupport.park(this);
+					continue;
+				}
+
+				if (broken)
+					continue;
+
+				try {
+					if (job instanceof File)
+						compact((File)job);
+					else
+						append((byte[])job);
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+
+			try {
+				if (! broken)
+					closeJournal();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+
+		private void fail(IOException e) {
+			System.err.println("Autosave has stopped: could not write to "+dir);
+			e.printStackTrace();
+			broken = true;
+		}
+
+	}
+
+	private class Closer implements Runnable {
+
+		public void run() {
+			close();
+		}
+
+	}
+}
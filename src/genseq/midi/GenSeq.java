@@ -13,6 +13,7 @@ import genseq.gui.*;
 import genseq.obj.*;
 import processing.core.*;
 import java.awt.AWTEvent;
+import java.awt.EventQueue;
 import java.awt.PopupMenu;
 import java.awt.MenuItem;
 import java.awt.event.ActionEvent;
@@ -20,16 +21,19 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.ArrayList;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiUnavailableException;
+import javax.swing.JOptionPane;
 
 @SuppressWarnings("serial")
-public class GenSeq extends PApplet implements ActionListener, MouseListener, MouseMotionListener {
+public class GenSeq extends PApplet implements ActionListener, MouseListener, MouseMotionListener, MouseWheelListener {
 	
 	/*** PROGRAM NAME AND VERSION ***/
 	public static final String NAME = "Graphikal";
@@ -53,15 +57,18 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	// How accurate does the user have to be with the mouse in order
 	// to select an item (in pixels)?
 	private static final int CLICK_ACCURACY = 20;
-	// Tells us which score is currently active / being worked on.
-	private static int activeScore;
+	// How much one notch of the mouse wheel (or one +/- key) zooms
+	private static final double ZOOM_STEP = 1.25;
+	// How far one arrow key pans (screen pixels)
+	private static final int PAN_STEP = 50;
 	// Various editing modes that can be selected in GenSeqToolWindow
 	private static int currentMode;
 	public static final int CREATE_NODES = 0;
 	public static final int MOVE_NODES = 1;
-	// List of scores the user can draw on.
-	private static ArrayList<Score> scores;
-	// Previous x, y position of a mouse click, respectively
+	// The scores the user can draw on, and which one is being worked on.
+	// The draw loop reads them too, so they're swapped as one (see Layers).
+	private static volatile Layers layers;
+	// Previous x, y position of a mouse click (on screen), respectively
 	private static int prevX, prevY;
 	
 	
@@ -72,8 +79,20 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	// 12.5 indicates sixteen 64th notes (1 quarter note) is 200 pixels.
 	// 3.125 indicates sixteen 64th notes (1 quarter note) is 50 pixels.
 	public static final double TIME_EDGE_RATIO = 3.125; 
-	private static ArrayList<ScoreTraverser> traversers;
-	private static Timer timer;
+	// How much music (seconds) Score > Render produces, at most
+	public static final double DEFAULT_RENDER_LENGTH = 600.0;
+	// How far ahead of the MIDI device's clock we schedule events (milliseconds)
+	public static final long DEFAULT_LOOKAHEAD = 100;
+	private static long lookahead = DEFAULT_LOOKAHEAD;
+	private static TraverserEngine engine;
+	private static PlaybackClock clock;
+	private static LookaheadScheduler scheduler;
+	
+	/*** AUTOSAVE ***/
+	private static EditJournal journal;
+	
+	/*** UNDO ***/
+	private static EditHistory history;
 	
 	/*** EXTERNAL REFERENCES ***/
 	// Reference to the Frame hosting this PApplet
@@ -102,12 +121,14 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	 * components.
 	 */
 	private void constructComponents() {
-		scores = new ArrayList<Score>();
+		// Pick up where we left off, and save every edit from here on
+		journal = new EditJournal(EditJournal.defaultDirectory());
+		ArrayList<Score> scores = journal.recover(this);
+		journal.start(scores);
+		history = new EditHistory(EditHistory.DEFAULT_LIMIT);
+		history.attach(scores);
 		
-		Score gsc = new Score(this);
-		scores.add(gsc);
-		
-		activeScore = 0;
+		layers = new Layers(scores, 0);
 		
 		// Set up GUI components (non-Processing)
 		nodePopupMenu = new PopupMenu("Node");
@@ -141,7 +162,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		// Circuit popup menu
 		MenuItem pmDeleteSelection = new MenuItem("Delete selection");
 		pmDeleteSelection.addActionListener(new pmDeleteSelectionActionListener());
-		MenuItem pmEncapulateSelection = new MenuItem("Encapsulate");
+		MenuItem pmEncapsulateSelection = new MenuItem("Encapsulate");
 		pmEncapsulateSelection.addActionListener(new pmEncapsulateSelectionActionListener());
 		
 		circuitPopupMenu.add(pmDeleteSelection);
@@ -152,6 +173,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		add(circuitPopupMenu);
 		
 		enableEvents(AWTEvent.MOUSE_EVENT_MASK);
+		addMouseWheelListener(this);
 	}
 	
 	/**
@@ -181,6 +203,31 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		return currentMode;
 	}
 	
+	/**
+	 * setLookahead(long lookahead) - change how far ahead of the MIDI device
+	 * playback is scheduled. Takes effect the next time playback starts.
+	 * 
+	 * @param lookahead - Lookahead window, in milliseconds
+	 */
+	public void setLookahead(long lookahead) {
+		if (lookahead < 0) throw new IllegalArgumentException("Lookahead can't be negative");
+		
+		GenSeq.lookahead = lookahead;
+	}
+	
+	public long getLookahead() {
+		return lookahead;
+	}
+	
+	/**
+	 * getActiveScore()
+	 * 
+	 * @return The score currently being worked on.
+	 */
+	public Score getActiveScore() {
+		return layers.getActive();
+	}
+	
 	
 	/***********
 	 * LISTENERS
@@ -194,7 +241,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	public void actionPerformed(ActionEvent e) {
 		
 		// Forward the event to the active score
-		scores.get(activeScore).actionPerformed(e);
+		getActiveScore().actionPerformed(e);
 		
 	}
 
@@ -205,7 +252,8 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	 */
 	public void mouseClicked(MouseEvent me) {
 		
-		scores.get(activeScore).mouseClicked(me);
+		getActiveScore().mouseClicked(me);
+		getActiveScore().commit();
 		
 	}
 	
@@ -219,14 +267,18 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		// Mouse triggers can happen at the time of the mouse being
 		// pressed or released on different platforms. We check it in both.
 		if (me.isPopupTrigger()) {
+			Score score = getActiveScore();
+			int sX = score.scoreX(me.getX());
+			int sY = score.scoreY(me.getY());
+			
 			// If we are on a node and there are multiple nodes selected, show circuit popup menu
-			if (scores.get(activeScore).getSelectedNodes().size() > 1)
+			if (score.getSelectedNodes().size() > 1)
 				circuitPopupMenu.show(this, me.getX(), me.getY());
 			// Otherwise, if we are on a node (and 1 or 0 nodes selected)
-			else if (null != scores.get(activeScore).findNodeAtPoint(me.getX(), me.getY()))
+			else if (null != score.findNodeAtPoint(sX, sY))
 				nodePopupMenu.show(this, me.getX(), me.getY());
 			// Otherwise, if we are on an edge
-			else if (null != scores.get(activeScore).findEdgeAtPoint(me.getX(), me.getY()))
+			else if (null != score.findEdgeAtPoint(sX, sY))
 				edgePopupMenu.show(this, me.getX(), me.getY());
 			// Otherwise, show the general popup
 //			else
@@ -236,7 +288,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		prevX = me.getX();
 		prevY = me.getY();
 		
-		scores.get(activeScore).mousePressed(me);
+		getActiveScore().mousePressed(me);
 	}
 	
 	/**
@@ -251,7 +303,8 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		if (me.isPopupTrigger())
 			nodePopupMenu.show(this, me.getX(), me.getY());
 		
-		scores.get(activeScore).mouseReleased(me);
+		getActiveScore().mouseReleased(me);
+		getActiveScore().commit();
 		
 	}
 	
@@ -272,7 +325,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 			}
 		}
 		
-		scores.get(activeScore).mouseDragged(mouseX, mouseY);
+		getActiveScore().mouseDragged(mouseX, mouseY);
 		
 	}
 	
@@ -280,6 +333,43 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	
 	
 	
+	/**
+	 * mouseWheelMoved()
+	 * 
+	 * Zooms the active score in or out around the mouse.
+	 */
+	public void mouseWheelMoved(MouseWheelEvent mwe) {
+		
+		getActiveScore().zoom(Math.pow(ZOOM_STEP, -mwe.getWheelRotation()), mwe.getX(), mwe.getY());
+		
+	}
+	
+	/**
+	 * keyPressed()
+	 * 
+	 * Arrow keys pan the active score, + and - zoom it around the middle of
+	 * the canvas, and 0 goes back to actual size.
+	 */
+	public void keyPressed() {
+		Score score = getActiveScore();
+		
+		if (CODED == key) {
+			switch (keyCode) {
+			case UP:	score.pan(0, PAN_STEP); break;
+			case DOWN:	score.pan(0, -PAN_STEP); break;
+			case LEFT:	score.pan(PAN_STEP, 0); break;
+			case RIGHT:	score.pan(-PAN_STEP, 0); break;
+			}
+		}
+		else if ('+' == key || '=' == key)
+			score.zoom(ZOOM_STEP, width/2, height/2);
+		else if ('-' == key)
+			score.zoom(1.0/ZOOM_STEP, width/2, height/2);
+		else if ('0' == key)
+			score.resetView();
+		
+	}
+	
 	/*******************************************************
 	 * DRAW LOOP.
 	 * 
@@ -287,7 +377,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	 ******************************************************/
 	public void draw() {		
 
-		scores.get(activeScore).render();
+		getActiveScore().render();
 	
 	}
 
@@ -303,63 +393,201 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	 * play() - Begin playback of the generative score.
 	 **/
 	public void playScore() {
-		// Calculate time duration of the smallest subdivision (milliseconds)
-		long sdtime = (long)((60.0 / TEMPO) / (SMALL_SUBDIVISION / 4.0) * 1000);
+		// Don't start playing twice
+		if (null != clock && clock.isRunning())
+			return;
+		
+		// Calculate time duration of the smallest subdivision (nanoseconds)
+		double sdtime = PlaybackClock.periodFor(TEMPO, SMALL_SUBDIVISION);
 		
 		// Dubugging message
 		//System.out.println("Duration of "+SMALL_SUBDIVISION+" note: "+sdtime);
 		
-		traversers = new ArrayList<ScoreTraverser>();
-		ArrayList<Node> primeNodes = new ArrayList<Node>();
+		// Create a ScoreTraverser for each prime node. They all get stepped
+		// by the engine on the clock's thread, and walk the score's latest
+		// snapshot rather than the score itself, so editing during playback is safe.
+		// Each traverser gets its own random stream, split off of the score's seed.
+		Score score = getActiveScore();
+		score.loadPlayable();
+		score.flush();
+		ScoreSnapshot snap = score.getSnapshot();
+		RandomStream master = new RandomStream(score.getSeed());
+		engine = new TraverserEngine(MidiCommon.getReceiver(), snap);
+		engine.follow(score);
+		// Nodes light up when they're heard, not when they're scheduled
+		score.getVisitFeed().setDelay(lookahead * 1000000L);
+		for (int i = 0; i<snap.getPrimeCount(); i++)
+			engine.add(new ScoreTraverser(snap, snap.getPrime(i), master.split()));
+		
+		// The seed is what it takes to hear this run again
+		showInTitle("seed "+score.getSeed());
+		
+		// Map clock ticks onto the MIDI device's clock, then create the clock
+		scheduler = new LookaheadScheduler(sdtime, lookahead);
+		scheduler.start(MidiCommon.getReceiverDevice());
+		clock = new PlaybackClock(sdtime, new ScoreTraverserConductor());
+		clock.start();
+		
+	}
+	
+	/**
+	 * stop() - Stop all playback.
+	 **/
+	public void stopScore() {
+		// Sanity check
+		if (null == clock)
+			return;
+
+		// Stop the clock first, so nobody ticks the traversers while we tear them down
+		clock.stop();
+
+		engine.clear();
+		
+		// Traversers were stopped wherever they were; nothing's playing any more
+		getActiveScore().clearGlow();
+		
+		showInTitle(null);
+	}
+
+	
+	
+	/**
+	 * renderScore(File f, double seconds) - Render the active score to a
+	 * Standard MIDI File, as fast as possible. The score is compiled here;
+	 * the rendering itself happens on its own thread, and a dialog says
+	 * how it went.
+	 * 
+	 * @param f - Where to save the MIDI file.
+	 * @param seconds - The longest the rendered piece may be.
+	 **/
+	public void renderScore(File f, double seconds) {
+		Score s = getActiveScore();
+		s.loadPlayable();
+		s.flush();
 		
-		// Find all the prime nodes
-		for (Node n : scores.get(activeScore).getNodes()) {
-			if (n.isPrimeNode())
-				primeNodes.add(n);
+		OfflineRenderer renderer = new OfflineRenderer(s);
+		new Thread(new RenderJob(renderer, f, seconds), "OfflineRenderer").start();
+	}
+
+	
+	/**
+	 * saveScores(File f) - Save every score (layer) to a file. Scores that
+	 * were opened lazily are loaded the rest of the way first.
+	 * 
+	 * @param f - Where to save
+	 **/
+	public void saveScores(File f) {
+		ArrayList<Score> scores = layers.scores;
+		
+		try {
+			for (Score s : scores)
+				s.loadAll();
+			ScoreFile.write(f, scores);
+		} catch (IOException e) {
+			System.err.println("Could not save to "+f);
+			e.printStackTrace();
 		}
+	}
+	
+	/**
+	 * importMidi(File f) - Put a graph learned from a Standard MIDI File on the
+	 * active score, in the middle of the screen (see MidiImporter). It's one
+	 * edit, so it can be undone.
+	 * 
+	 * @param f - The file to import
+	 **/
+	public void importMidi(File f) {
+		MidiImporter importer = new MidiImporter(this);
 		
-		// TODO: Create a ScoreTraverser for each prime node
-		// Each ScoreTraverser runs on its own thread. Is this a good idea?
-		for (Node p : primeNodes) {
-			ScoreTraverser t = new ScoreTraverser(this, p);
-			t.start();
-			traversers.add(t);
+		try {
+			importer.read(f);
+		} catch (Exception e) {
+			System.err.println("Could not import "+f);
+			e.printStackTrace();
+			return;
 		}
 		
-		// Create the timer
-		timer = new Timer();
-		timer.schedule(new ScoreTraverserConductor(), 0, sdtime);
+		Score score = getActiveScore();
+		ArrayList<Node> imported = importer.build(score, score.scoreX(width/2), score.scoreY(height/2));
+		score.commit();
 		
+		// Select what was imported
+		score.clearActiveEdges();
+		score.clearActiveNodes();
+		score.selectNodes(imported);
 	}
 	
 	/**
-	 * stop() - Stop all playback.
+	 * undo() - Take back the last edit made to any score.
+	 */
+	public void undo() {
+		Score s = history.undo();
+		if (null != s)
+			s.commit();
+	}
+	
+	/**
+	 * redo() - Make the last edit undone again.
+	 */
+	public void redo() {
+		Score s = history.redo();
+		if (null != s)
+			s.commit();
+	}
+	
+	/**
+	 * openScores(File f) - Replace every score (layer) with those saved in a file.
+	 * Playback is stopped first. The file is mapped rather than read, and only
+	 * what's on screen is loaded to begin with (see ScoreFile.open()).
+	 * 
+	 * @param f - The file to open
 	 **/
-	public void stopScore() {
-
+	public void openScores(File f) {
+		ArrayList<Score> opened;
+		
 		try {
-			for (ScoreTraverser t : traversers) {
-				t.interrupt();
-
-			}
-		} catch (SecurityException e) {
+			opened = ScoreFile.open(f, this);
+		} catch (IOException e) {
+			System.err.println("Could not open "+f);
 			e.printStackTrace();
+			return;
 		}
-
-		timer.cancel();
-		traversers.clear();
 		
-		for (Node n : scores.get(activeScore).getNodes())
-			n.refresh();
+		// Always at least one score to draw on
+		if (opened.isEmpty())
+			opened.add(new Score(this));
 		
+		stopScore();
+		layers = new Layers(opened, 0);
+		for (Score s : opened)
+			s.loadView();
+		journal.rebase(opened, f);
+		history.attach(opened);
 	}
-
 	
 	
 	/*****************
 	 * PRIVATE METHODS
 	 *****************/
 	
+	/**
+	 * showInTitle(String status) - Show something next to the program name
+	 * in the window's title.
+	 * 
+	 * @param status - What to show, or null for nothing.
+	 */
+	private void showInTitle(String status) {
+		if (null == parent)
+			return;
+		
+		final String title = (null == status)? NAME : NAME+" - "+status;
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				parent.setTitle(title);
+			}
+		});
+	}
+	
 	private double distance(double x1, double y1, double x2, double y2) {
 		return Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 -y2, 2));
 	}
@@ -389,7 +617,7 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		 * 
 		 */
 		
-		Score score = scores.get(activeScore);
+		Score score = getActiveScore();
 		
 		ArrayList<Node> selectedNodes = score.getSelectedNodes();
 		ArrayList<Edge> selectedEdges = score.getSelectedEdges();
@@ -397,12 +625,12 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		if (selectedNodes.size() < 1)
 			return;
 		
-		// Find the leftmost node's x-coordinate
-		// Nodes are sorted by ascending X-coordinate automatically
-		int minX = selectedNodes.get(0).getX();	
-		// Find topmost node's y-coordinate
-		int minY = 100000000;
+		// Find the leftmost node's x-coordinate and topmost node's y-coordinate
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
 		for (Node n : selectedNodes) {
+			if (n.getX() < minX)
+				minX = n.getX();
 			if (n.getY() < minY)
 				minY = n.getY();
 		}
@@ -472,9 +700,12 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 			}
 		}
 		
-		// Update the active Score's Node and Edge lists
-		score.getNodes().addAll(copiedNodes);
-		score.getEdges().addAll(copiedEdges);
+		// Update the active Score's Node and Edge lists, as one edit
+		score.beginEdit();
+		score.addNodes(copiedNodes);
+		score.addEdges(copiedEdges);
+		score.endEdit();
+		score.commit();
 		
 		// Clear the current selection of Nodes and Edges
 		score.clearActiveEdges();
@@ -497,7 +728,9 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		
 		public void actionPerformed(ActionEvent e) {
 			
-			scores.get(activeScore).removeNode(prevX, prevY);
+			Score score = getActiveScore();
+			score.removeNode(score.scoreX(prevX), score.scoreY(prevY));
+			score.commit();
 			
 		}
 		
@@ -514,7 +747,9 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	private class pmDeleteEdgeActionListener implements ActionListener {
 		
 		public void actionPerformed(ActionEvent e) {
-			scores.get(activeScore).removeEdge(prevX, prevY);
+			Score score = getActiveScore();
+			score.removeEdge(score.scoreX(prevX), score.scoreY(prevY));
+			score.commit();
 		}
 		
 	}
@@ -522,12 +757,14 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	private class pmDeleteSelectionActionListener implements ActionListener {
 		
 		public void actionPerformed(ActionEvent e) {
-			Score s = scores.get(activeScore);
+			Score s = getActiveScore();
 			
-			for (Node n : s.getSelectedNodes())
-				s.removeNode(n);
-			for (Edge ed : s.getSelectedEdges())
-				s.removeEdge(ed);
+			// One edit, so it's undone all at once
+			s.beginEdit();
+			s.removeNodes(new ArrayList<Node>(s.getSelectedNodes()));
+			s.removeEdges(new ArrayList<Edge>(s.getSelectedEdges()));
+			s.endEdit();
+			s.commit();
 		}
 		
 	}
@@ -535,7 +772,8 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	private class pmEncapsulateSelectionActionListener implements ActionListener {
 		
 		public void actionPerformed(ActionEvent e) {
-			scores.get(activeScore).encapsulateSelection();
+			getActiveScore().encapsulateSelection();
+			getActiveScore().commit();
 		}
 		
 	}
@@ -543,7 +781,8 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 	private class pmAttributesActionListener implements ActionListener {
 		
 		public void actionPerformed(ActionEvent e) {
-			Node target = scores.get(activeScore).findNodeAtPoint(prevX, prevY);
+			Score score = getActiveScore();
+			Node target = score.findNodeAtPoint(score.scoreX(prevX), score.scoreY(prevY));
 			
 			if (null != target) {
 				PApplet nawParent = (PApplet)((PopupMenu)((MenuItem)e.getSource()).getParent()).getParent();
@@ -552,15 +791,75 @@ public class GenSeq extends PApplet implements ActionListener, MouseListener, Mo
 		}
 	}
 
-	private class ScoreTraverserConductor extends TimerTask {
+	/**
+	 * Layers - The scores (layers) the user can draw on, and which of them is
+	 * active. Never changed once made, so the draw loop can't see one half of
+	 * a switch without the other: switching means making new Layers.
+	 */
+	private static class Layers {
+		
+		private final ArrayList<Score> scores;
+		private final int active;
+		
+		public Layers(ArrayList<Score> scores, int active) {
+			this.scores = scores;
+			this.active = active;
+		}
+		
+		public Score getActive() {
+			return scores.get(active);
+		}
+		
+	}
+	
+	/**
+	 * RenderJob - Writes an OfflineRenderer's output to a file, then tells
+	 * the user (on the event thread) whether that worked.
+	 */
+	private class RenderJob implements Runnable {
+		
+		private final OfflineRenderer renderer;
+		private final File f;
+		private final double seconds;
+		
+		public RenderJob(OfflineRenderer renderer, File f, double seconds) {
+			this.renderer = renderer;
+			this.f = f;
+			this.seconds = seconds;
+		}
 		
 		public void run() {
+			String message;
+			int type;
+			try {
+				renderer.write(f, seconds);
+				message = "Rendered "+f.getName()+".";
+				type = JOptionPane.INFORMATION_MESSAGE;
+			} catch (Exception e) {
+				e.printStackTrace();
+				message = "Could not render to "+f+":\n"+e.getMessage();
+				type = JOptionPane.ERROR_MESSAGE;
+			}
 			
-			// Sanity check
-			if (null != traversers) {
-				for (ScoreTraverser t : traversers) {
-					t.tick();
+			final String m = message;
+			final int t = type;
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					JOptionPane.showMessageDialog(GenSeq.this, m, "Render to MIDI file", t);
 				}
+			});
+		}
+		
+	}
+	
+	private class ScoreTraverserConductor implements PlaybackClock.Listener {
+		
+		public void tick(long tick, long deadline) {
+			
+			// Sanity check
+			if (null != engine) {
+				// Everything that happens on this tick sounds at the same device time
+				engine.tick(tick, scheduler.timestampFor(tick, deadline));
 			}
 			
 		}
@@ -0,0 +1,126 @@
+/**
+ * LookaheadScheduler.java
+ *
+ * Maps PlaybackClock ticks onto the output MIDI device's own clock.
+ * Traversal runs at each tick's deadline, but the messages it produces
+ * are stamped to sound a fixed lookahead window later, in device
+ * microseconds (MidiDevice.getMicrosecondPosition()). As long as the
+ * JVM wakes up within the lookahead window, output timing depends only
+ * on the device clock.
+ *
+ * Tick n is stamped at (anchor + lookahead + n * period). The anchor is
+ * the device's time when playback starts. Every so often the stamp is
+ * checked against what the device clock says now (allowing for how late
+ * the tick was delivered); if they're more than half the lookahead apart,
+ * the anchor is moved by the difference.
+ *
+ * The device must be the one the messages are sent to. A device without
+ * a clock (getMicrosecondPosition() of -1) gets unstamped messages.
+ *
+ */
+
+package genseq.midi;
+
+import javax.sound.midi.MidiDevice;
+
+public class LookaheadScheduler {
+
+	/*** INTERNAL CONSTANTS ***/
+	// Timestamp meaning "as soon as possible" to a Receiver
+	public static final long NO_TIMESTAMP = -1;
+	// How often (in ticks) we compare the device clock against our own
+	private static final int DRIFT_CHECK_TICKS = 64;
+
+	/*** EXTERNAL REFERENCES ***/
+	private MidiDevice device;
+
+	/*** INTERNAL CONTROL ***/
+	private final double period;	// Length of one tick, in microseconds
+	private final long lookahead;	// Lookahead window, in microseconds
+	private long anchor;			// Device time (us) at which tick 0 was due; it sounds a lookahead later
+	private int resyncs;
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param period - Length of one clock tick, in nanoseconds.
+	 * @param lookahead - How far ahead of the device clock to schedule, in milliseconds.
+	 */
+	public LookaheadScheduler(double period, long lookahead) {
+		this.period = period / 1000.0;
+		this.lookahead = lookahead * 1000;
+
+		device = null;
+		anchor = NO_TIMESTAMP;
+		resyncs = 0;
+	}
+
+	/**
+	 * start(MidiDevice device)
+	 *
+	 * Anchor tick 0 at the device's current time. Call this right before
+	 * the PlaybackClock is started.
+	 *
+	 * @param device - The device the messages are sent to, whose clock the
+	 * timestamps are in. If null, or if the device has no clock, messages
+	 * are sent unstamped.
+	 */
+	public void start(MidiDevice device) {
+		this.device = device;
+
+		anchor = NO_TIMESTAMP;
+		if (null != device)
+			anchor = Math.max(device.getMicrosecondPosition(), NO_TIMESTAMP);
+	}
+
+	/**
+	 * timestampFor(long tick, long deadline)
+	 *
+	 * @param tick - Index of the current clock tick.
+	 * @param deadline - System.nanoTime() at which the tick was due.
+	 * @return The device timestamp (us) at which events produced during this tick
+	 * should sound, or NO_TIMESTAMP if the device can't take timestamps.
+	 */
+	public long timestampFor(long tick, long deadline) {
+		if (anchor < 0)
+			return NO_TIMESTAMP;
+
+		long stamp = anchor + lookahead + Math.round(tick * period);
+
+		// Every so often, make sure the device clock hasn't wandered away from ours.
+		if (tick % DRIFT_CHECK_TICKS == 0) {
+			long now = device.getMicrosecondPosition();
+			if (now < 0)
+				return NO_TIMESTAMP;
+			long late = (System.nanoTime() - deadline) / 1000;
+			long expected = now - late + lookahead;
+
+			if (Math.abs(stamp - expected) > lookahead / 2) {
+				anchor += expected - stamp;
+				stamp = expected;
+				resyncs++;
+			}
+		}
+
+		return stamp;
+	}
+
+	/**
+	 * getLookahead()
+	 *
+	 * @return The lookahead window, in milliseconds.
+	 */
+	public long getLookahead() {
+		return lookahead / 1000;
+	}
+
+	/**
+	 * getResyncs()
+	 *
+	 * @return How many times the anchor had to be moved to follow the device clock.
+	 */
+	public int getResyncs() {
+		return resyncs;
+	}
+
+}
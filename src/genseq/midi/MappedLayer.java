@@ -0,0 +1,417 @@
+/**
+ * MappedLayer.java
+ *
+ * One layer of a score file, opened without reading it. The file is
+ * mapped into memory (see ScoreFile.open()) and its columns are left
+ * where they are; Nodes, Edges and events are only made out of them when
+ * the Score needs them:
+ *
+ * 	- loadArea() makes every Node in part of the score, with all of its
+ * 	  Edges (and so the Nodes at their other ends): whatever is on screen;
+ * 	- loadPlayable() makes everything playback can get to, and fills in
+ * 	  the MetaNodes it passes through;
+ * 	- loadAll() makes the rest, e.g. before saving.
+ *
+ * A MetaNode's contents are only made once it's entered: once playback
+ * can get to it, or it's being saved. Each record is made at most once,
+ * so the same Node, Edge or event comes back every time it's needed, and
+ * whatever the user has deleted since stays deleted.
+ *
+ * The operating system pages the file in as it's read, and none of it is
+ * copied onto the heap, so opening a file takes as long however big it
+ * is, and the heap only holds what has been loaded. A damaged file shows
+ * up (as an IndexOutOfBoundsException) when the damaged part is loaded.
+ *
+ * Not thread-safe. Only the thread that edits the Score (the GUI thread)
+ * may use it.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+public class MappedLayer {
+
+	/*** EXTERNAL REFERENCES ***/
+	private GenSeq parent;
+	private Score score;
+
+	/*** COLUMNS (see ScoreFile) ***/
+	private final IntBuffer x, y, nodeFlags, metaID, serial, eventStart, eventRefs;	// serial is null before format 3
+	private final IntBuffer type, noteStart;
+	private final DoubleBuffer eventLikelihood;
+	private final IntBuffer pitch, velocity;
+	private final IntBuffer source, destination, edgeFlags;
+	private final DoubleBuffer edgeLikelihood;
+	private final IntBuffer metaNode, memberStart, members, metaEdgeStart, metaEdges;
+	private final LongBuffer tileKey;
+	private final IntBuffer tileStart, tileNodes, incidentStart, incident, metaOf, primes;
+	private final int tileSize;
+
+	/*** WHAT'S BEEN LOADED ***/
+	private HashMap<Integer, Node> nodes;		// By record number
+	private HashMap<Integer, Edge> edges;		// null for Edges that were left out (see edge())
+	private HashMap<Integer, NodeEvent> events;
+	private HashMap<Integer, Integer> metaRecords;	// MetaNode's Node record -> MetaNode record. Made when first needed.
+	private BitSet complete;		// Nodes whose Edges have all been made
+	private BitSet loadedTiles;
+	private BitSet entered;			// MetaNodes whose contents have been made
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param body - The layer's body, mapped
+	 * @param l - Where everything is in it
+	 * @param score - The (empty) Score to load things into
+	 * @param parent - The applet the Score is drawn on
+	 */
+	MappedLayer(ByteBuffer body, ScoreFile.Layout l, Score score, GenSeq parent) {
+		this.parent = parent;
+		this.score = score;
+
+		x = ints(body, l.x, l.n);
+		y = ints(body, l.y, l.n);
+		nodeFlags = ints(body, l.nodeFlags, l.n);
+		metaID = ints(body, l.metaID, l.n);
+		serial = (l.version >= 3? ints(body, l.serial, l.n) : null);
+		eventStart = ints(body, l.eventStart, l.n + 1);
+		eventRefs = ints(body, l.eventRefs, l.refs);
+
+		type = ints(body, l.type, l.e);
+		noteStart = ints(body, l.noteStart, l.e + 1);
+		eventLikelihood = slice(body, l.eventLikelihood, 8L*l.e).asDoubleBuffer();
+
+		pitch = ints(body, l.pitch, l.notes);
+		velocity = ints(body, l.velocity, l.notes);
+
+		source = ints(body, l.source, l.m);
+		destination = ints(body, l.destination, l.m);
+		edgeFlags = ints(body, l.edgeFlags, l.m);
+		edgeLikelihood = slice(body, l.edgeLikelihood, 8L*l.m).asDoubleBuffer();
+
+		metaNode = ints(body, l.metaNode, l.q);
+		memberStart = ints(body, l.memberStart, l.q + 1);
+		members = ints(body, l.members, l.memberCount);
+		metaEdgeStart = ints(body, l.metaEdgeStart, l.q + 1);
+		metaEdges = ints(body, l.metaEdges, l.metaEdgeCount);
+
+		tileKey = slice(body, l.tileKey, 8L*l.tiles).asLongBuffer();
+		tileStart = ints(body, l.tileStart, l.tiles + 1);
+		tileNodes = ints(body, l.tileNodes, l.tiled);
+		incidentStart = ints(body, l.incidentStart, l.n + 1);
+		incident = ints(body, l.incident, 2L*l.m);
+		metaOf = ints(body, l.metaOf, l.n);
+		primes = ints(body, l.primes, l.primeCount);
+		tileSize = l.tileSize;
+
+		nodes = new HashMap<Integer, Node>();
+		edges = new HashMap<Integer, Edge>();
+		events = new HashMap<Integer, NodeEvent>();
+		metaRecords = null;
+		complete = new BitSet();
+		loadedTiles = new BitSet();
+		entered = new BitSet();
+	}
+
+	/**
+	 * loadArea(int x1, int y1, int x2, int y2)
+	 *
+	 * Make every one of the Score's own Nodes in a rectangle (and maybe some
+	 * around it), along with all of their Edges.
+	 *
+	 * @param x1, y1, x2, y2 - The rectangle, in score coordinates
+	 * @return True if anything new was put on the Score.
+	 */
+	public boolean loadArea(int x1, int y1, int x2, int y2) {
+		int before = loaded();
+		int tx1 = ScoreFile.tileOf(x1, tileSize), tx2 = ScoreFile.tileOf(x2, tileSize);
+		int ty1 = ScoreFile.tileOf(y1, tileSize), ty2 = ScoreFile.tileOf(y2, tileSize);
+
+		for (int tx = tx1; tx<=tx2; tx++) {
+			long last = ScoreFile.tileKey(tx, ty2);
+			for (int t = firstTile(ScoreFile.tileKey(tx, ty1)); t<tileKey.limit() && tileKey.get(t) <= last; t++) {
+				if (loadedTiles.get(t))
+					continue;
+
+				loadedTiles.set(t);
+				for (int k = tileStart.get(t); k<tileStart.get(t + 1); k++)
+					complete(tileNodes.get(k));
+			}
+		}
+
+		return loaded() != before;
+	}
+
+	/**
+	 * loadPlayable()
+	 *
+	 * Make everything playback could get to: from the prime Nodes, and from
+	 * whatever has been loaded already (which is on the Score, and so will
+	 * be played too), along every Edge and into and out of every MetaNode.
+	 *
+	 * @return True if anything new was put on the Score.
+	 */
+	public boolean loadPlayable() {
+		int before = loaded();
+		BitSet seen = new BitSet();
+		ArrayList<Integer> todo = new ArrayList<Integer>(nodes.keySet());
+		for (int p = 0; p<primes.limit(); p++)
+			todo.add(primes.get(p));
+
+		while (! todo.isEmpty()) {
+			int i = todo.remove(todo.size() - 1);
+			if (seen.get(i))
+				continue;
+			seen.set(i);
+
+			Node n = complete(i);
+			if (deleted(i, n))
+				continue;
+
+			// Out along its Edges...
+			for (int k = incidentStart.get(i); k<incidentStart.get(i + 1); k++) {
+				int e = incident.get(k);
+				if (source.get(e) == i && null != edges.get(e))
+					todo.add(destination.get(e));
+			}
+
+			// ...out of the MetaNode it's in, when it comes to a dead end...
+			int q = metaOf.get(i);
+			if (q >= 0) {
+				enter(q);
+				todo.add(metaNode.get(q));
+			}
+
+			// ...and into it, if it's a MetaNode
+			if (n instanceof MetaNode) {
+				q = metaRecord(i);
+				enter(q);
+				for (int k = memberStart.get(q); k<memberStart.get(q + 1); k++)
+					todo.add(members.get(k));
+			}
+		}
+
+		return loaded() != before;
+	}
+
+	/**
+	 * loadAll()
+	 *
+	 * Make everything in the layer that hasn't been made yet.
+	 *
+	 * @return True if anything new was put on the Score.
+	 */
+	public boolean loadAll() {
+		int before = loaded();
+		for (int i = 0; i<x.limit(); i++)
+			complete(i);
+		for (int q = 0; q<metaNode.limit(); q++)
+			enter(q);
+
+		return loaded() != before;
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	/**
+	 * node(int i)
+	 *
+	 * @return Node record i, made now if it hasn't been already. If it's one of
+	 * the Score's own Nodes, it's put on the Score.
+	 */
+	private Node node(int i) {
+		Node n = nodes.get(i);
+		if (null != n)
+			return n;
+
+		int flags = nodeFlags.get(i);
+		n = ((flags & ScoreFile.NODE_META) != 0?
+				new MetaNode(parent, metaID.get(i), x.get(i), y.get(i)) :
+				new Node(parent, x.get(i), y.get(i)));
+
+		ArrayList<NodeEvent> list = new ArrayList<NodeEvent>(eventStart.get(i + 1) - eventStart.get(i));
+		for (int k = eventStart.get(i); k<eventStart.get(i + 1); k++)
+			list.add(event(eventRefs.get(k)));
+		n.setEventList(list);
+		n.setPrime((flags & ScoreFile.NODE_PRIME) != 0);
+		n.setLegato((flags & ScoreFile.NODE_LEGATO) != 0);
+		n.setSerial(null == serial? i : serial.get(i));
+
+		nodes.put(i, n);
+		if ((flags & ScoreFile.NODE_ON_SCORE) != 0)
+			score.putNode(n);
+
+		return n;
+	}
+
+	/**
+	 * complete(int i)
+	 *
+	 * @return Node record i, with every Edge touching it made.
+	 */
+	private Node complete(int i) {
+		Node n = node(i);
+		if (! complete.get(i)) {
+			complete.set(i);
+			for (int k = incidentStart.get(i); k<incidentStart.get(i + 1); k++)
+				edge(incident.get(k));
+		}
+
+		return n;
+	}
+
+	/**
+	 * edge(int k)
+	 *
+	 * @return Edge record k, made (with the Nodes at both ends) now if it
+	 * hasn't been already. null if the user has deleted one of its Nodes.
+	 */
+	private Edge edge(int k) {
+		if (edges.containsKey(k))
+			return edges.get(k);
+
+		int si = source.get(k), di = destination.get(k);
+		Node s = node(si), d = node(di);
+		Edge e = null;
+		if (! deleted(si, s) && ! deleted(di, d)) {
+			boolean onScore = (edgeFlags.get(k) & ScoreFile.EDGE_ON_SCORE) != 0;
+
+			// The user may have joined them already
+			if (onScore)
+				e = score.findEdge(s, d);
+			if (null == e) {
+				e = new Edge(parent, s, d);
+				if (e.getLikelihood() != edgeLikelihood.get(k))
+					e.setLikelihood(edgeLikelihood.get(k));
+				s.registerEdge(e);
+				d.registerEdge(e);
+				if (onScore)
+					score.putEdge(e);
+			}
+		}
+
+		edges.put(k, e);
+		return e;
+	}
+
+	/**
+	 * event(int i)
+	 *
+	 * @return Event record i, made now if it hasn't been already.
+	 */
+	private NodeEvent event(int i) {
+		NodeEvent ev = events.get(i);
+		if (null != ev)
+			return ev;
+
+		ArrayList<Note> notes = new ArrayList<Note>(noteStart.get(i + 1) - noteStart.get(i));
+		for (int k = noteStart.get(i); k<noteStart.get(i + 1); k++)
+			notes.add(new Note(pitch.get(k), velocity.get(k)));
+
+		if (NodeEvent.TYPE_CHORD == type.get(i) || notes.size() != 1)
+			ev = new NodeEvent(notes, eventLikelihood.get(i));
+		else
+			ev = new NodeEvent(notes.get(0), eventLikelihood.get(i));
+
+		events.put(i, ev);
+		return ev;
+	}
+
+	/**
+	 * enter(int q)
+	 *
+	 * Make MetaNode record q's contents, and put it on the Score.
+	 */
+	private void enter(int q) {
+		if (entered.get(q))
+			return;
+		entered.set(q);
+
+		MetaNode meta = (MetaNode)complete(metaNode.get(q));
+		ArrayList<Node> contents = new ArrayList<Node>(memberStart.get(q + 1) - memberStart.get(q));
+		for (int k = memberStart.get(q); k<memberStart.get(q + 1); k++) {
+			int i = members.get(k);
+			Node n = node(i);
+			if (! deleted(i, n))
+				contents.add(n);
+		}
+		meta.encapsulate(contents);
+
+		for (int k = metaEdgeStart.get(q); k<metaEdgeStart.get(q + 1); k++) {
+			Edge e = edge(metaEdges.get(k));
+			if (null != e)
+				meta.getEdges().add(e);
+		}
+
+		score.putMetaNode(meta);
+	}
+
+	/**
+	 * deleted(int i, Node n)
+	 *
+	 * @return True if n (Node record i) was one of the Score's own Nodes, but
+	 * the user has taken it off.
+	 */
+	private boolean deleted(int i, Node n) {
+		return (nodeFlags.get(i) & ScoreFile.NODE_ON_SCORE) != 0 && ! score.hasNode(n);
+	}
+
+	/**
+	 * metaRecord(int i)
+	 *
+	 * @return The MetaNode record of MetaNode i (a Node record).
+	 */
+	private int metaRecord(int i) {
+		if (null == metaRecords) {
+			metaRecords = new HashMap<Integer, Integer>();
+			for (int q = 0; q<metaNode.limit(); q++)
+				metaRecords.put(metaNode.get(q), q);
+		}
+
+		return metaRecords.get(i);
+	}
+
+	/**
+	 * firstTile(long key)
+	 *
+	 * @return The first tile whose key is at least `key'.
+	 */
+	private int firstTile(long key) {
+		int lo = 0, hi = tileKey.limit();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (tileKey.get(mid) < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		return lo;
+	}
+
+	private int loaded() {
+		return nodes.size() + edges.size() + entered.cardinality();
+	}
+
+	private static IntBuffer ints(ByteBuffer body, long at, long count) {
+		return slice(body, at, 4*count).asIntBuffer();
+	}
+
+	private static ByteBuffer slice(ByteBuffer body, long at, long length) {
+		ByteBuffer b = body.duplicate();
+		b.position((int)at);
+		b.limit((int)(at + length));
+		return b.slice();
+	}
+}
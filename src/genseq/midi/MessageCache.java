@@ -0,0 +1,90 @@
+/**
+ * MessageCache.java
+ *
+ * Hands out ready-made NOTE ON / NOTE OFF messages, so that playing a
+ * note doesn't allocate anything. There is one message per (command,
+ * pitch, velocity), all created when the class is loaded and never
+ * changed afterwards, so any thread can read them.
+ *
+ * Because a Receiver may hold on to a message until its timestamp comes
+ * around, cached messages are shared, not recycled: NEVER call
+ * setMessage() on anything returned from here.
+ *
+ */
+
+package genseq.midi;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+
+public final class MessageCache {
+
+	/*** INTERNAL CONSTANTS ***/
+	private static final int MIDI_VALUES = 128;
+	// TODO: Will we support multiple MIDI channels?
+	private static final int CHANNEL = 0;
+
+	/*** INTERNAL CONTROL ***/
+	private static final ShortMessage[] noteOns = new ShortMessage[MIDI_VALUES * MIDI_VALUES];
+	private static final ShortMessage[] noteOffs = new ShortMessage[MIDI_VALUES * MIDI_VALUES];
+
+	static {
+		fill(noteOns, ShortMessage.NOTE_ON);
+		fill(noteOffs, ShortMessage.NOTE_OFF);
+	}
+
+	/**
+	 * No instantiation allowed!
+	 */
+	private MessageCache() {
+
+	}
+
+	/**
+	 * noteOn(int pitch, int velocity)
+	 *
+	 * @return A shared NOTE ON message, or null if pitch or velocity are out
+	 * of MIDI range (e.g. a REST).
+	 */
+	public static ShortMessage noteOn(int pitch, int velocity) {
+		return lookup(noteOns, pitch, velocity);
+	}
+
+	/**
+	 * noteOff(int pitch, int velocity)
+	 *
+	 * @return A shared NOTE OFF message, or null if pitch or velocity are out
+	 * of MIDI range (e.g. a REST).
+	 */
+	public static ShortMessage noteOff(int pitch, int velocity) {
+		return lookup(noteOffs, pitch, velocity);
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private static ShortMessage lookup(ShortMessage[] cache, int pitch, int velocity) {
+		if (pitch < 0 || pitch >= MIDI_VALUES || velocity < 0 || velocity >= MIDI_VALUES)
+			return null;
+
+		return cache[pitch * MIDI_VALUES + velocity];
+	}
+
+	private static void fill(ShortMessage[] cache, int command) {
+		try {
+			for (int pitch = 0; pitch<MIDI_VALUES; pitch++) {
+				for (int velocity = 0; velocity<MIDI_VALUES; velocity++) {
+					ShortMessage msg = new ShortMessage();
+					msg.setMessage(command, CHANNEL, pitch, velocity);
+					cache[pitch * MIDI_VALUES + velocity] = msg;
+				}
+			}
+		} catch (InvalidMidiDataException e) {
+			// Every value is in range, so this can't happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
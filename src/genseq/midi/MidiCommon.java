@@ -7,13 +7,13 @@
 
 package genseq.midi;
 
-import genseq.obj.Node;
-
 import java.util.Hashtable;
 
 import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDeviceReceiver;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
 
 public final class MidiCommon implements MIDIConstants {
 
@@ -22,6 +22,8 @@ public final class MidiCommon implements MIDIConstants {
 	
 	/*** MIDI CONTROL ***/
 	private static MidiDevice midiDevice;
+	private static Receiver receiver;
+	private static MidiDevice receiverDevice;	// The device receiver belongs to, if known
 	
 	/**
 	 * No instantiation allowed!
@@ -69,7 +71,52 @@ public final class MidiCommon implements MIDIConstants {
 	 */
 	public static void setMidiDevice(MidiDevice m) throws MidiUnavailableException {
 		MidiCommon.midiDevice = m;
-		Node.setReceiver(MidiCommon.midiDevice.getReceiver());
+		MidiCommon.receiver = m.getReceiver();
+		MidiCommon.receiverDevice = m;
+	}
+	
+	/**
+	 * getReceiver() - Get the receiver that live playback is sent to.
+	 * If no device has been chosen yet, this falls back to the system's
+	 * default receiver.
+	 * 
+	 * @return - A MIDI receiver, or null if none could be opened.
+	 */
+	public static Receiver getReceiver() {
+		if (null != receiver)
+			return receiver;
+		
+		try {
+			receiver = midiDevice.getReceiver();
+			receiverDevice = midiDevice;
+		} catch (Exception e) {
+
+			// If that failed, try again with the default receiver
+			try {
+				receiver = MidiSystem.getReceiver();
+				receiverDevice = (receiver instanceof MidiDeviceReceiver?
+						((MidiDeviceReceiver)receiver).getMidiDevice() : null);
+			} catch (MidiUnavailableException e1) {
+				System.err.println("Could not open the default MIDI receiver. Check that other sequencer applications "
+						+ "have not reserved this device and try again.");
+				e1.printStackTrace();
+			}
+
+		}
+		
+		return receiver;
+	}
+	
+	/**
+	 * getReceiverDevice() - Get the device that getReceiver()'s messages
+	 * actually go to, e.g. for its clock. This isn't getMidiDevice() when
+	 * getReceiver() had to fall back to the default receiver.
+	 * 
+	 * @return - A MIDI device, or null if it isn't known (or there's no receiver).
+	 */
+	public static MidiDevice getReceiverDevice() {
+		getReceiver();
+		return receiverDevice;
 	}
 	
 	public static int getPitchFromString(String s) {
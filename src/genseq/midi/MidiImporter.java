@@ -0,0 +1,469 @@
+/**
+ * MidiImporter.java
+ *
+ * Builds a score graph out of Standard MIDI Files. Every distinct chord
+ * (set of pitches starting together) in the music becomes one Node, and
+ * every move from one chord to the next becomes an Edge: the more often
+ * the music makes a move, the likelier the Edge, and the Edge is as long
+ * as the move usually takes (see ScoreTraverser.ticksFor()).
+ *
+ * Each track is read as one voice, in a single pass over its events.
+ * Chords and moves are counted in open-addressed tables keyed on
+ * primitives, so nothing is allocated per note; objects are only made
+ * for the Nodes and Edges at the end. Several files can be read into the
+ * same importer, which adds up what they have in common.
+ *
+ * Nodes are laid out so that, for each Node, the Edge from the chord that
+ * first led to it has the right length. The other Edges only come out
+ * as long as their Nodes happen to be apart. A chord followed by itself
+ * can't be drawn, so repeats aren't counted.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+public class MidiImporter {
+
+	/*** INTERNAL CONSTANTS ***/
+	// Notes starting within this many clock ticks of a chord's first note are part of it
+	public static final int CHORD_SPREAD = 1;
+	// How far apart (pixels) the first Nodes of unconnected parts of the graph go
+	private static final int ROOT_SPACING = 200;
+	// Turn between one Node and the next (radians), so Nodes fan out around the ones that led to them
+	private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+	private static final int INITIAL_CAPACITY = 256;
+
+	/*** INTERNAL CONTROL ***/
+	private GenSeq parent;
+	private ChordTable chords;		// Every distinct chord so far, numbered in the order first heard
+	private MoveTable moves;		// Every move from one chord to another
+	// Per chord, by number
+	private long[] velocities;		// Sum of the velocities of every note played in it
+	private int[] notes;			// How many notes that was
+	private int[] from;				// The chord heard just before it was first heard (-1 if none was)
+	private boolean[] first;		// Does a track start with it?
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param parent - The applet the Nodes will be drawn on
+	 */
+	public MidiImporter(GenSeq parent) {
+		this.parent = parent;
+
+		chords = new ChordTable(INITIAL_CAPACITY);
+		moves = new MoveTable(INITIAL_CAPACITY);
+		velocities = new long[INITIAL_CAPACITY];
+		notes = new int[INITIAL_CAPACITY];
+		from = new int[INITIAL_CAPACITY];
+		first = new boolean[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * read(File f) - Learn the chords and moves in a Standard MIDI File.
+	 */
+	public void read(File f) throws InvalidMidiDataException, IOException {
+		read(MidiSystem.getSequence(f));
+	}
+
+	/**
+	 * read(Sequence seq) - Learn the chords and moves in a sequence, track by track.
+	 */
+	public void read(Sequence seq) {
+		// Clock ticks per MIDI tick. With PPQ timing these are musical (tempo
+		// changes don't matter); with SMPTE timing they're at GenSeq.TEMPO.
+		double scale;
+		if (Sequence.PPQ == seq.getDivisionType())
+			scale = (GenSeq.SMALL_SUBDIVISION / 4.0) / seq.getResolution();
+		else
+			scale = (GenSeq.TEMPO / 60.0 * GenSeq.SMALL_SUBDIVISION / 4.0) / (seq.getDivisionType() * seq.getResolution());
+
+		long spread = (long)Math.floor(CHORD_SPREAD / scale);
+		for (Track t : seq.getTracks())
+			read(t, scale, spread);
+	}
+
+	/**
+	 * build(Score score, int x, int y)
+	 *
+	 * Put everything learned so far on a score, as one edit.
+	 *
+	 * @param score - Where the graph goes
+	 * @param x, y - Where the first Node goes (score pixels)
+	 * @return The new Nodes, in the order their chords were first heard.
+	 */
+	public ArrayList<Node> build(Score score, int x, int y) {
+		int count = chords.size();
+		ArrayList<Node> built = new ArrayList<Node>(count);
+
+		// Nodes, each placed off the one that first led to it
+		int roots = 0;
+		for (int c = 0; c<count; c++) {
+			Node n = new Node(parent, x, y);
+			int p = from[c];
+			if (p < 0) {
+				n.setX(x + ROOT_SPACING * roots++);
+			} else {
+				// Far enough apart that the Edge's length (see Edge.calculateLength())
+				// takes as long to travel as the move usually did
+				Node before = built.get(p);
+				double ticks = moves.meanTicks(moves.find(p, c));
+				double d = Math.max(ticks, 1) * GenSeq.TIME_EDGE_RATIO + before.getWidth()/2 + 2;
+				double angle = GOLDEN_ANGLE * c;
+				n.setX(before.getX() + (int)Math.round(d * Math.cos(angle)));
+				n.setY(before.getY() + (int)Math.round(d * Math.sin(angle)));
+			}
+
+			ArrayList<NodeEvent> events = new ArrayList<NodeEvent>(1);
+			events.add(event(c));
+			n.setEventList(events);
+			n.setPrime(first[c]);
+			n.refresh();
+			built.add(n);
+		}
+
+		// Edges, as likely as the moves were common
+		int moveCount = moves.size();
+		ArrayList<Edge> edges = new ArrayList<Edge>(moveCount);
+		for (int m = 0; m<moveCount; m++) {
+			Node s = built.get(moves.source(m));
+			Node d = built.get(moves.destination(m));
+			Edge e = new Edge(parent, s, d);
+			e.setLikelihood(moves.count(m));
+			s.registerEdge(e);
+			d.registerEdge(e);
+			edges.add(e);
+		}
+
+		score.beginEdit();
+		score.addNodes(built);
+		score.addEdges(edges);
+		score.endEdit();
+
+		return built;
+	}
+
+	/**
+	 * getChordCount()
+	 *
+	 * @return How many distinct chords have been read (Nodes build() will make).
+	 */
+	public int getChordCount() {
+		return chords.size();
+	}
+
+	/**
+	 * getMoveCount()
+	 *
+	 * @return How many distinct moves have been read (Edges build() will make).
+	 */
+	public int getMoveCount() {
+		return moves.size();
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	/**
+	 * read(Track t, double scale, long spread)
+	 *
+	 * One pass over a track's events (which are in time order), noting each
+	 * chord as soon as the next one starts.
+	 *
+	 * @param scale - Clock ticks per MIDI tick
+	 * @param spread - CHORD_SPREAD in MIDI ticks
+	 */
+	private void read(Track t, double scale, long spread) {
+		int previous = -1;		// Last chord heard, and when it started
+		long previousTick = 0;
+
+		long lo = 0, hi = 0;	// Pitches in the chord being heard, as bits
+		long velocity = 0;
+		int size = 0;
+		long start = 0;
+
+		for (int i = 0, count = t.size(); i<=count; i++) {
+			long tick = 0;
+			int pitch = -1;
+			int vel = 0;
+
+			if (i < count) {
+				MidiEvent ev = t.get(i);
+				MidiMessage msg = ev.getMessage();
+				if (! (msg instanceof ShortMessage))
+					continue;
+
+				ShortMessage sm = (ShortMessage)msg;
+				// Note on with no velocity is note off
+				if (ShortMessage.NOTE_ON != sm.getCommand() || 0 == sm.getData2())
+					continue;
+
+				tick = ev.getTick();
+				pitch = sm.getData1();
+				vel = sm.getData2();
+			}
+
+			// A new chord (or the end of the track): the one before is done
+			if (size > 0 && (pitch < 0 || tick - start > spread)) {
+				int c = chord(lo, hi);
+				if (0 == notes[c])
+					from[c] = previous;		// Heard before c, so placed before it
+				velocities[c] += velocity;
+				notes[c] += size;
+
+				if (previous < 0)
+					first[c] = true;
+				else if (previous != c)
+					moves.add(previous, c, (start - previousTick) * scale);
+
+				previous = c;
+				previousTick = start;
+				lo = hi = velocity = size = 0;
+			}
+
+			if (pitch < 0)
+				continue;
+
+			if (0 == size)
+				start = tick;
+			long bit = 1L << (pitch & 63);
+			if (pitch < 64) {
+				if (0 != (lo & bit)) continue;
+				lo |= bit;
+			} else {
+				if (0 != (hi & bit)) continue;
+				hi |= bit;
+			}
+			velocity += vel;
+			size++;
+		}
+	}
+
+	/**
+	 * chord(long lo, long hi)
+	 *
+	 * @return The number of the chord with these pitches, numbering it if
+	 * it hasn't been heard before.
+	 */
+	private int chord(long lo, long hi) {
+		int c = chords.intern(lo, hi);
+		if (c == velocities.length) {
+			int capacity = c * 2;
+			velocities = Arrays.copyOf(velocities, capacity);
+			notes = Arrays.copyOf(notes, capacity);
+			from = Arrays.copyOf(from, capacity);
+			first = Arrays.copyOf(first, capacity);
+		}
+		return c;
+	}
+
+	/**
+	 * event(int c)
+	 *
+	 * @return What chord c's Node plays: its pitches, at their average velocity.
+	 */
+	private NodeEvent event(int c) {
+		int velocity = (int)Math.round((double)velocities[c] / notes[c]);
+		ArrayList<Note> played = new ArrayList<Note>();
+		long lo = chords.lo(c), hi = chords.hi(c);
+		for (int pitch = 0; pitch<128; pitch++) {
+			long bits = (pitch < 64? lo : hi);
+			if (0 != (bits & (1L << (pitch & 63))))
+				played.add(new Note(pitch, velocity));
+		}
+
+		if (1 == played.size())
+			return new NodeEvent(played.get(0));
+		return new NodeEvent(played);
+	}
+
+	/**
+	 * mix(long key) - Hash for the tables. The top half of the product is the
+	 * part that depends on every bit of the key.
+	 */
+	private static int mix(long key) {
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * ChordTable - Numbers sets of pitches (as two 64-bit masks), 0, 1, 2...
+	 * in the order they're first seen.
+	 */
+	private static class ChordTable {
+
+		private long[] los, his;	// By number
+		private int[] slots;		// Open-addressed: number + 1, or 0 for empty
+		private int size;
+
+		public ChordTable(int capacity) {
+			los = new long[capacity];
+			his = new long[capacity];
+			slots = new int[capacity * 2];
+			size = 0;
+		}
+
+		public int intern(long lo, long hi) {
+			int mask = slots.length - 1;
+			int i = mix(lo ^ mix(hi)) & mask;
+			while (0 != slots[i]) {
+				int c = slots[i] - 1;
+				if (los[c] == lo && his[c] == hi)
+					return c;
+				i = (i + 1) & mask;
+			}
+
+			if (size == los.length) {
+				los = Arrays.copyOf(los, size * 2);
+				his = Arrays.copyOf(his, size * 2);
+			}
+			los[size] = lo;
+			his[size] = hi;
+			slots[i] = ++size;
+			if (size * 2 > slots.length)
+				rehash();
+
+			return size - 1;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long lo(int c) {
+			return los[c];
+		}
+
+		public long hi(int c) {
+			return his[c];
+		}
+
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			int mask = slots.length - 1;
+			for (int c = 0; c<size; c++) {
+				int i = mix(los[c] ^ mix(his[c])) & mask;
+				while (0 != slots[i])
+					i = (i + 1) & mask;
+				slots[i] = c + 1;
+			}
+		}
+
+	}
+
+	/**
+	 * MoveTable - Counts moves from one chord to another, and how long
+	 * they take altogether. Numbered in the order first seen.
+	 */
+	private static class MoveTable {
+
+		private long[] keys;		// By number: source << 32 | destination
+		private int[] counts;
+		private double[] ticks;		// Clock ticks
+		private int[] slots;		// Open-addressed: number + 1, or 0 for empty
+		private int size;
+
+		public MoveTable(int capacity) {
+			keys = new long[capacity];
+			counts = new int[capacity];
+			ticks = new double[capacity];
+			slots = new int[capacity * 2];
+			size = 0;
+		}
+
+		public void add(int source, int destination, double t) {
+			long key = ((long)source << 32) | (destination & 0xFFFFFFFFL);
+			int mask = slots.length - 1;
+			int i = mix(key) & mask;
+			while (0 != slots[i]) {
+				int m = slots[i] - 1;
+				if (keys[m] == key) {
+					counts[m]++;
+					ticks[m] += t;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+				ticks = Arrays.copyOf(ticks, size * 2);
+			}
+			keys[size] = key;
+			counts[size] = 1;
+			ticks[size] = t;
+			slots[i] = ++size;
+			if (size * 2 > slots.length)
+				rehash();
+		}
+
+		/**
+		 * find(int source, int destination)
+		 *
+		 * @return The number of the move, or -1 if it hasn't been seen.
+		 */
+		public int find(int source, int destination) {
+			long key = ((long)source << 32) | (destination & 0xFFFFFFFFL);
+			int mask = slots.length - 1;
+			for (int i = mix(key) & mask; 0 != slots[i]; i = (i + 1) & mask) {
+				if (keys[slots[i] - 1] == key)
+					return slots[i] - 1;
+			}
+
+			return -1;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int source(int m) {
+			return (int)(keys[m] >>> 32);
+		}
+
+		public int destination(int m) {
+			return (int)keys[m];
+		}
+
+		public int count(int m) {
+			return counts[m];
+		}
+
+		public double meanTicks(int m) {
+			return ticks[m] / counts[m];
+		}
+
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			int mask = slots.length - 1;
+			for (int m = 0; m<size; m++) {
+				int i = mix(keys[m]) & mask;
+				while (0 != slots[i])
+					i = (i + 1) & mask;
+				slots[i] = m + 1;
+			}
+		}
+
+	}
+
+}
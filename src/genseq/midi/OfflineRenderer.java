@@ -0,0 +1,168 @@
+/**
+ * OfflineRenderer.java
+ *
+ * Plays a Score against a virtual clock instead of the PlaybackClock,
+ * collecting everything the traversers send into a javax.sound.midi
+ * Sequence, which can then be written out as a Standard MIDI File.
+ *
+ * One clock tick (a GenSeq.SMALL_SUBDIVISION note) is one MIDI tick in
+ * the Sequence, and the virtual clock jumps straight from one traverser
+ * wakeup to the next, so rendering takes as long as the events do, not
+ * as long as the music does.
+ *
+ */
+
+package genseq.midi;
+
+import java.io.File;
+import java.io.IOException;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+public class OfflineRenderer {
+
+	/*** INTERNAL CONSTANTS ***/
+	// MIDI ticks per quarter note, chosen so that one MIDI tick is one clock tick
+	public static final int RESOLUTION = GenSeq.SMALL_SUBDIVISION / 4;
+	// Standard MIDI File type: a single track
+	private static final int SMF_TYPE = 0;
+	// Meta event type for "set tempo"
+	private static final int META_TEMPO = 0x51;
+	// Controller number for "all notes off"
+	private static final int CC_ALL_NOTES_OFF = 123;
+
+	/*** EXTERNAL REFERENCES ***/
+	private ScoreSnapshot snapshot;
+
+	/*** INTERNAL CONTROL ***/
+	private double tempo;
+	private long seed;
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param snapshot - The compiled score. Traversal starts at its prime
+	 * nodes (one traverser per node).
+	 * @param tempo - Tempo to render at, in quarter notes per minute.
+	 * @param seed - Master seed. Rendering twice with the same seed gives
+	 * the same Sequence.
+	 */
+	public OfflineRenderer(ScoreSnapshot snapshot, double tempo, long seed) {
+		this.snapshot = snapshot;
+		this.tempo = tempo;
+		this.seed = seed;
+	}
+
+	public OfflineRenderer(Score score) {
+		this(score.getSnapshot(), GenSeq.TEMPO, score.getSeed());
+	}
+
+	/**
+	 * ticksFor(double seconds)
+	 *
+	 * @param seconds - A length of time.
+	 * @return How many clock ticks it takes to play that long.
+	 */
+	public long ticksFor(double seconds) {
+		return (long)Math.ceil(seconds * 1000000000.0 / PlaybackClock.periodFor(tempo, GenSeq.SMALL_SUBDIVISION));
+	}
+
+	/**
+	 * render(long length)
+	 *
+	 * Play the score from the prime nodes until every traverser finishes,
+	 * or until `length' ticks have gone by, whichever comes first.
+	 *
+	 * @param length - The most clock ticks to render.
+	 * @return A Sequence containing everything that was played.
+	 * @throws InvalidMidiDataException
+	 */
+	public Sequence render(long length) throws InvalidMidiDataException {
+		Sequence seq = new Sequence(Sequence.PPQ, RESOLUTION);
+		Track track = seq.createTrack();
+
+		// Tempo goes first, so players know how long a tick is
+		int uspq = (int)Math.round(60000000.0 / tempo);
+		MetaMessage tempoMsg = new MetaMessage();
+		tempoMsg.setMessage(META_TEMPO,
+				new byte[]{ (byte)(uspq >> 16), (byte)(uspq >> 8), (byte)uspq },
+				3);
+		track.add(new MidiEvent(tempoMsg, 0));
+
+		// Timestamps handed to the engine are MIDI ticks
+		RandomStream master = new RandomStream(seed);
+		TraverserEngine engine = new TraverserEngine(new TrackReceiver(track), snapshot);
+		for (int i = 0; i<snapshot.getPrimeCount(); i++)
+			engine.add(new ScoreTraverser(snapshot, snapshot.getPrime(i), master.split()));
+
+		long tick = 0;
+		long end = length;
+		while (tick < length) {
+			engine.tick(tick, tick);
+
+			// Everybody finished? Then the piece ends here.
+			if (engine.isFinished()) {
+				end = tick;
+				break;
+			}
+			tick = engine.nextWakeup();
+		}
+		engine.clear();
+
+		// Don't leave anything hanging at the end of the file
+		ShortMessage allOff = new ShortMessage();
+		allOff.setMessage(ShortMessage.CONTROL_CHANGE, 0, CC_ALL_NOTES_OFF, 0);
+		track.add(new MidiEvent(allOff, end));
+
+		return seq;
+	}
+
+	/**
+	 * write(File f, double seconds)
+	 *
+	 * Render up to `seconds' of music and save it as a Standard MIDI File.
+	 *
+	 * @param f - Where to save.
+	 * @param seconds - The longest the rendered piece may be.
+	 * @throws InvalidMidiDataException
+	 * @throws IOException
+	 */
+	public void write(File f, double seconds) throws InvalidMidiDataException, IOException {
+		Sequence seq = render(ticksFor(seconds));
+		MidiSystem.write(seq, SMF_TYPE, f);
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * Receives messages stamped in MIDI ticks and files them into a Track.
+	 */
+	private class TrackReceiver implements Receiver {
+
+		private Track track;
+
+		public TrackReceiver(Track track) {
+			this.track = track;
+		}
+
+		public void send(MidiMessage message, long timeStamp) {
+			track.add(new MidiEvent(message, timeStamp));
+		}
+
+		public void close() {
+
+		}
+
+	}
+
+}
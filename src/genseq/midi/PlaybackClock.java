@@ -0,0 +1,266 @@
+/**
+ * PlaybackClock.java
+ *
+ * Drives playback at the rate of the smallest subdivision. The clock
+ * runs on its own thread and schedules each tick against an absolute
+ * System.nanoTime() deadline (start + n * period), so rounding errors
+ * and late wakeups never accumulate into tempo drift. The period is
+ * kept as a double, so e.g. 31.25ms at 120 BPM is honored exactly over
+ * the long run.
+ *
+ * The clock also keeps jitter statistics: how late (in nanoseconds)
+ * each tick was actually delivered with respect to its deadline.
+ *
+ */
+
+package genseq.midi;
+
+import java.util.concurrent.locks.LockSupport;
+
+public class PlaybackClock implements Runnable {
+
+	/*** INTERNAL CONSTANTS ***/
+	// How close to a deadline (ns) we stop parking the thread and start spinning.
+	private static final long SPIN_THRESHOLD = 1000000L;
+	// If we ever fall this many periods behind (e.g. the machine was suspended),
+	// forget about the missed ticks and start counting from "now" again.
+	private static final int MAX_MISSED_PERIODS = 64;
+
+	/*** EXTERNAL REFERENCES ***/
+	private Listener listener;
+
+	/*** INTERNAL CONTROL ***/
+	private final double period;		// Length of one tick, in nanoseconds
+	private long startTime;				// Absolute time (System.nanoTime()) of tick 0
+	private long tick;					// Index of the next tick to deliver
+	private volatile boolean running;
+	private Thread thread;
+
+	/*** JITTER STATISTICS ***/
+	// Written only by the clock thread; readable from anywhere.
+	private volatile long ticksDelivered;
+	private volatile long totalLateness;
+	private volatile double totalLatenessSq;
+	private volatile long maxLateness;
+	private volatile int resyncs;
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param period - Length of one tick, in nanoseconds.
+	 * @param listener - Who to notify on every tick.
+	 */
+	public PlaybackClock(double period, Listener listener) {
+		if (period <= 0.0) throw new IllegalArgumentException("Clock period must be positive");
+
+		this.period = period;
+		this.listener = listener;
+
+		running = false;
+	}
+
+	/**
+	 * periodFor(double tempo, int subdivision)
+	 *
+	 * @param tempo - Tempo, in quarter notes per minute.
+	 * @param subdivision - The note value of one tick (e.g. 64 for 64th notes).
+	 * @return The length of one tick, in nanoseconds.
+	 */
+	public static double periodFor(double tempo, int subdivision) {
+		return (60.0 / tempo) / (subdivision / 4.0) * 1000000000.0;
+	}
+
+	/**
+	 * start() - Start ticking, beginning right now with tick 0.
+	 */
+	public synchronized void start() {
+		if (running) return;
+
+		running = true;
+		thread = new Thread(this, "PlaybackClock");
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * stop() - Stop ticking, and wait for the clock thread to finish.
+	 */
+	public synchronized void stop() {
+		if (! running) return;
+
+		running = false;
+		LockSupport.unpark(thread);
+
+		// Don't wait on ourselves if a listener stops the clock
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+	}
+
+	/**
+	 * run()
+	 *
+	 * The clock loop. Park until shortly before the next deadline, spin the
+	 * remainder, then deliver the tick. If a listener throws, the clock stops
+	 * (and says so through isRunning()), rather than dying while looking alive.
+	 */
+	public void run() {
+		startTime = System.nanoTime();
+		tick = 0;
+
+		try {
+			while (running) {
+				long deadline = startTime + Math.round(tick * period);
+
+				// Coarse wait: let the OS have the CPU until we're close.
+				long remaining = deadline - System.nanoTime();
+				while (running && remaining > SPIN_THRESHOLD) {
+					LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+					remaining = deadline - System.nanoTime();
+				}
+				// Fine wait: spin the last stretch for accuracy.
+				while (running && remaining > 0) {
+					Thread.yield();
+					remaining = deadline - System.nanoTime();
+				}
+				if (! running) break;
+
+				long lateness = -remaining;
+
+				// Way behind? Skip the missed ticks rather than firing them all at once,
+				// and count this one as due now.
+				if (lateness > MAX_MISSED_PERIODS * period) {
+					startTime = System.nanoTime() - Math.round(tick * period);
+					deadline = startTime + Math.round(tick * period);
+					resyncs++;
+					lateness = 0;
+				}
+
+				recordLateness(lateness);
+
+				listener.tick(tick, deadline);
+				tick++;
+			}
+		} finally {
+			running = false;
+		}
+	}
+
+	/**
+	 * isRunning()
+	 *
+	 * @return True if the clock is currently ticking.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * getPeriod()
+	 *
+	 * @return The length of one tick, in nanoseconds.
+	 */
+	public double getPeriod() {
+		return period;
+	}
+
+	/**
+	 * getTicksDelivered()
+	 *
+	 * @return How many ticks have been delivered so far.
+	 */
+	public long getTicksDelivered() {
+		return ticksDelivered;
+	}
+
+	/**
+	 * getMeanLateness()
+	 *
+	 * @return The average time (ns) between a tick's deadline and its delivery.
+	 */
+	public double getMeanLateness() {
+		long n = ticksDelivered;
+		return (n == 0? 0.0 : (double)totalLateness / n);
+	}
+
+	/**
+	 * getJitter()
+	 *
+	 * @return The standard deviation (ns) of tick lateness.
+	 */
+	public double getJitter() {
+		long n = ticksDelivered;
+		if (n == 0) return 0.0;
+
+		double mean = (double)totalLateness / n;
+		double var = totalLatenessSq / n - mean * mean;
+		return (var > 0.0? Math.sqrt(var) : 0.0);
+	}
+
+	/**
+	 * getMaxLateness()
+	 *
+	 * @return The latest (ns) any tick has been delivered.
+	 */
+	public long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * getResyncs()
+	 *
+	 * @return How many times the clock fell too far behind and had to skip ahead.
+	 */
+	public int getResyncs() {
+		return resyncs;
+	}
+
+	public String toString() {
+		return String.format("%d ticks, mean lateness %.1fus, jitter %.1fus, max lateness %.1fus, %d resyncs",
+				getTicksDelivered(),
+				getMeanLateness() / 1000.0,
+				getJitter() / 1000.0,
+				getMaxLateness() / 1000.0,
+				getResyncs());
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private void recordLateness(long lateness) {
+		ticksDelivered++;
+		totalLateness += lateness;
+		totalLatenessSq += (double)lateness * lateness;
+		if (lateness > maxLateness)
+			maxLateness = lateness;
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * Anything that wants to be driven by the PlaybackClock.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called from the clock thread once per tick.
+		 *
+		 * @param tick - Index of this tick, counting from 0 at start().
+		 * @param deadline - The System.nanoTime() at which this tick was due.
+		 */
+		public void tick(long tick, long deadline);
+
+	}
+
+}
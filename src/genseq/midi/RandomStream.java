@@ -0,0 +1,114 @@
+/**
+ * RandomStream.java
+ *
+ * A small, splittable pseudo-random number generator (SplitMix64, after
+ * Steele, Lea & Flood). Every Score has a master seed; playback splits
+ * one independent stream off of it for each ScoreTraverser, so a run is
+ * reproducible bit for bit from its seed, no matter how many traversers
+ * there are. Drawing numbers allocates nothing.
+ *
+ * Not thread-safe: each stream belongs to one traverser.
+ *
+ */
+
+package genseq.midi;
+
+public class RandomStream {
+
+	/*** INTERNAL CONSTANTS ***/
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	/*** INTERNAL CONTROL ***/
+	private long seed;
+	private final long gamma;	// Odd increment; differs between split streams
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param seed - The seed. Two streams made from the same seed produce
+	 * the same numbers, and split the same children.
+	 */
+	public RandomStream(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+
+	private RandomStream(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * split()
+	 *
+	 * @return A new stream, statistically independent of this one. Calling
+	 * split() also advances this stream.
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextLong(), mixGamma(nextSeed()));
+	}
+
+	/**
+	 * nextLong()
+	 *
+	 * @return The next 64 random bits.
+	 */
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+
+	/**
+	 * nextInt(int bound)
+	 *
+	 * @param bound - Upper bound (exclusive). Must be positive.
+	 * @return A uniformly distributed int between 0 and bound - 1.
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+
+		// Take the top 31 bits, and reject the few values that would bias the result.
+		int r = (int)(nextLong() >>> 33);
+		int m = bound - 1;
+		if ((bound & m) == 0)
+			return (int)((bound * (long)r) >> 31);
+
+		for (int u = r; u - (r = u % bound) + m < 0; u = (int)(nextLong() >>> 33))
+			;
+		return r;
+	}
+
+	/**
+	 * nextDouble()
+	 *
+	 * @return A uniformly distributed double in [0.0, 1.0).
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private long nextSeed() {
+		return (seed += gamma);
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+
+		// Gammas with too few bit transitions make poor streams
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24? z ^ 0xaaaaaaaaaaaaaaaaL : z);
+	}
+
+}
@@ -23,8 +23,9 @@ import java.awt.event.MouseListener;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import javax.swing.Timer;
 
 public class Score implements ActionListener, MouseListener {
 
@@ -56,24 +57,80 @@ public class Score implements ActionListener, MouseListener {
 	// to select an item (in pixels)?
 	private static final int CLICK_ACCURACY_NODE = 20;
 	private static final int CLICK_ACCURACY_EDGE = 10;
-	private static NodeComparator ncomp;
-	private static EdgeComparator ecomp;
-	private ArrayList<Node> activeNodes;
-	private ArrayList<Edge> activeEdges;
+	// Size of a cell in the spatial index (pixels)
+	private static final int GRID_CELL_SIZE = 64;
+	private Selection<Node> activeNodes;
+	private Selection<Edge> activeEdges;
 	private boolean activeNodeLock;	// Locks using activeNodes while it's still being modified
 	private boolean activeEdgeLock; // Locks using activeEdges while it's still being modified
+	private int selX1, selY1, selX2, selY2;	// Selection rectangle as of the last drag event...
+	private boolean selEmpty;				// ...if there was one.
 	
 	/*** OBJECTS THAT SHOULD BE DRAWN (BUT NOT NODES/EDGES) ***/
 	SelectRect sr;
 	
+	/*** VIEWPORT ***/
+	// Below this zoom, Nodes are drawn as dots and Edges as plain lines
+	private static final float DETAIL_ZOOM = 0.5f;
+	// How far outside the screen (score pixels) something can be and still show
+	private static final int CULL_MARGIN = 32;
+	private volatile Viewport view;		// Swapped whole by the GUI thread
+	
+	/*** RETAINED RENDERING ***/
+	// Everything that isn't changing, drawn once and reused every frame.
+	// Only the draw thread touches these.
+	private PGraphics layer;
+	private long layerVersion;		// Snapshot version the layer was drawn from
+	private boolean layerMoving;	// Were the selected nodes left out of the layer?
+	private Viewport layerView;		// What part of the score the layer shows
+	private ArrayList<Node> visibleNodes;	// Nodes in the layer's view, as of its last redraw
+	private ArrayList<Edge> visibleEdges;
+	// What gets drawn over the layer: the selection, and the edges touching it.
+	// Built by the GUI thread, swapped whole.
+	private volatile Node[] overlayNodes;
+	private volatile Edge[] overlayEdges;
+	private volatile boolean dragging;	// Are the selected nodes being moved?
+	private int overlayNodeVersion, overlayEdgeVersion;	// Selection versions the overlay was built from
+	
+	/*** PLAYBACK HIGHLIGHTS ***/
+	private VisitFeed visits;			// Playback says which nodes it visits here...
+	private ArrayList<Node> glowing;	// ...and the draw loop keeps the ones still lit (draw thread only)
+	private GlowUpdater glowUpdater;
+	private volatile boolean glowCleared;	// Set by clearGlow(), for the draw loop to act on
+	
 	/*** EXTERNAL REFERENCES ***/
 	private GenSeq parent;
 	
 	/*** GLOBAL DATA ***/
-	private ArrayList<Node> nodes;
-	private ArrayList<Edge> edges;
+	private LinkedHashSet<Node> nodes;		// In the order they were added
+	private LinkedHashMap<Long, Edge> edges;	// Keyed by Edge.getKey(), i.e. (source, destination) IDs
 	private ArrayList<MetaNode> metaNodes;
+	private SpatialGrid<Node> nodeGrid;		// Where each Node is, for hit-testing
+	private SpatialGrid<Edge> edgeGrid;		// Bounding box of each Edge, for hit-testing
+	private ArrayList<Node> gridResults;		// Scratch lists for grid queries
+	private ArrayList<Edge> gridEdgeResults;
 	private int prevX, prevY;
+	private int dragX, dragY;	// How far the selection has been dragged since the mouse went down
+	private int nextSerial;		// Serial the next new Node will get (see Node.getSerial())
+	private int nextMetaID;		// Meta ID the next new MetaNode will get; never given out twice
+	private long seed;		// Master seed for playback; every traverser's random stream derives from it
+	
+	/*** PLAYBACK SNAPSHOT ***/
+	// Most often a snapshot is published (ms): about once a frame
+	private static final int PUBLISH_INTERVAL = 16;
+	private volatile ScoreSnapshot snapshot;	// What playback sees. Swapped, never modified.
+	private long snapshotVersion;
+	private boolean dirty;		// Has the score been edited since the last snapshot?
+	private boolean pending;	// Has commit() put off publishing until publisher goes off?
+	private long lastPublish;	// When the last snapshot was published (System.nanoTime())
+	private Timer publisher;	// Publishes what commit() put off, on the GUI thread
+	
+	/*** EDIT LISTENERS ***/
+	private ArrayList<EditListener> editListeners;	// Told about every edit (see EditListener)
+	private int editDepth;		// How many beginEdit()s are waiting for their endEdit()
+	
+	/*** LAZY LOADING ***/
+	private MappedLayer source;		// Where the rest of the score is, if it hasn't all been loaded (see ScoreFile.open())
 	
 	
 	
@@ -84,17 +141,53 @@ public class Score implements ActionListener, MouseListener {
 	public Score(GenSeq parent) {
 		this.parent = parent;
 		
-		nodes = new ArrayList<Node>();
-		edges = new ArrayList<Edge>();
+		nodes = new LinkedHashSet<Node>();
+		edges = new LinkedHashMap<Long, Edge>();
 		metaNodes = new ArrayList<MetaNode>();
+		nodeGrid = new SpatialGrid<Node>(GRID_CELL_SIZE);
+		edgeGrid = new SpatialGrid<Edge>(GRID_CELL_SIZE);
+		gridResults = new ArrayList<Node>();
+		gridEdgeResults = new ArrayList<Edge>();
+		nextSerial = 0;
+		nextMetaID = 0;
+		seed = System.nanoTime();
+		
+		snapshotVersion = 0;
+		snapshot = ScoreSnapshot.empty();
+		dirty = false;
+		pending = false;
+		lastPublish = System.nanoTime() - PUBLISH_INTERVAL * 1000000L;
+		publisher = new Timer(PUBLISH_INTERVAL, new Publisher());
+		publisher.setRepeats(false);
 		
-		ncomp = new NodeComparator();
-		ecomp = new EdgeComparator();
+		editListeners = new ArrayList<EditListener>();
+		editDepth = 0;
+		source = null;
 		
-		activeNodes = new ArrayList<Node>();
+		activeNodes = new Selection<Node>();
 		activeNodeLock = false;
-		activeEdges = new ArrayList<Edge>();
+		activeEdges = new Selection<Edge>();
 		activeEdgeLock = false;
+		selEmpty = true;
+		
+		view = Viewport.DEFAULT;
+		
+		visits = new VisitFeed();
+		glowing = new ArrayList<Node>();
+		glowUpdater = new GlowUpdater();
+		glowCleared = false;
+		
+		layer = null;
+		layerVersion = -1;
+		layerMoving = false;
+		layerView = null;
+		visibleNodes = new ArrayList<Node>();
+		visibleEdges = new ArrayList<Edge>();
+		overlayNodes = new Node[0];
+		overlayEdges = new Edge[0];
+		dragging = false;
+		overlayNodeVersion = activeNodes.getVersion();
+		overlayEdgeVersion = activeEdges.getVersion();
 		
 		// Build drawable objects for user feedback
 		sr = new SelectRect(parent);
@@ -139,15 +232,43 @@ public class Score implements ActionListener, MouseListener {
 	 * @return True if the nodes list was changed, false otherwise.
 	 */
 	public boolean removeNode(Node n) {
-		if (null == n) return false;
+		if (null == n || ! nodes.contains(n)) return false;
 		
-		for (int i=n.getEdges().size()-1; i>=0; i--) {
-			removeEdge(n.getEdges().get(i));
+		removeNodes(Collections.singletonList(n));
+		return true;
+	}
+	
+	/**
+	 * removeNodes(Collection<Node> targets) - Remove some Nodes, and every
+	 * Edge joined to them, as one edit. Nodes that aren't on this score are
+	 * left be.
+	 * 
+	 * @param targets - Nodes to remove
+	 */
+	public void removeNodes(Collection<Node> targets) {
+		ArrayList<Node> removed = new ArrayList<Node>(targets.size());
+		LinkedHashSet<Edge> joined = new LinkedHashSet<Edge>();
+		for (Node n : targets) {
+			if (nodes.contains(n)) {
+				removed.add(n);
+				joined.addAll(n.getEdges());
+			}
 		}
+		if (removed.isEmpty()) return;
 		
-		Collections.sort(edges, ecomp);
-				
-		return nodes.remove(n);
+		beginEdit();
+		removeEdges(joined);
+		
+		for (Node n : removed) {
+			nodeGrid.remove(n);
+			activeNodes.remove(n);
+			nodes.remove(n);
+		}
+		invalidate();
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).nodesRemoved(this, removed);
+		endEdit();
 	}
 	
 	/**
@@ -173,12 +294,38 @@ public class Score implements ActionListener, MouseListener {
 	 * @return True if the edges list was changed, false otherwise.
 	 */
 	public boolean removeEdge(Edge e) {
-		Node s = e.getSource();
-		Node d = e.getDestination();
-		s.unregisterEdge(e);
-		d.unregisterEdge(e);
+		if (null == e || edges.get(e.getKey()) != e) return false;
+		
+		removeEdges(Collections.singletonList(e));
+		return true;
+	}
+	
+	/**
+	 * removeEdges(Collection<Edge> targets) - Remove some Edges. Edges that
+	 * aren't on this score are left be.
+	 * 
+	 * @param targets - Edges to remove
+	 */
+	public void removeEdges(Collection<Edge> targets) {
+		ArrayList<Edge> removed = new ArrayList<Edge>(targets.size());
+		for (Edge e : targets) {
+			if (edges.get(e.getKey()) == e)
+				removed.add(e);
+		}
+		if (removed.isEmpty()) return;
 		
-		return edges.remove(e);
+		for (Edge e : removed) {
+			e.getSource().unregisterEdge(e);
+			e.getDestination().unregisterEdge(e);
+			
+			edgeGrid.remove(e);
+			activeEdges.remove(e);
+			edges.remove(e.getKey());
+		}
+		invalidate();
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).edgesRemoved(this, removed);
 	}
 	
 	/**
@@ -191,16 +338,26 @@ public class Score implements ActionListener, MouseListener {
 	 */
 	public Node findNodeAtPoint(double x, double y) {
 		Node result = null;
-		double closestDistance = 100000000.0;
+		double closestDistance = CLICK_ACCURACY_NODE * CLICK_ACCURACY_NODE;
 		
-		// Iterate through the nodes, checking distances
-		for (Node n : nodes) {
-			double dist = distance(n.getX(), n.getY(), x, y); 
-			if (dist <= CLICK_ACCURACY_NODE && dist < closestDistance) {
+		// Only look at nodes in the grid cells around the point, comparing
+		// squared distances.
+		gridResults.clear();
+		nodeGrid.query((int)Math.floor(x - CLICK_ACCURACY_NODE), (int)Math.floor(y - CLICK_ACCURACY_NODE),
+				(int)Math.ceil(x + CLICK_ACCURACY_NODE), (int)Math.ceil(y + CLICK_ACCURACY_NODE),
+				gridResults);
+		for (int i = 0; i<gridResults.size(); i++) {
+			Node n = gridResults.get(i);
+			double dX = n.getX() - x;
+			double dY = n.getY() - y;
+			double dist = dX*dX + dY*dY;
+			if (dist <= closestDistance && (null == result || dist < closestDistance)) {
 				result = n;
 				closestDistance = dist;
 			}
 		}
+		gridResults.clear();
+		
 		return result;
 	}
 	
@@ -214,58 +371,198 @@ public class Score implements ActionListener, MouseListener {
 	 */
 	public Edge findEdgeAtPoint(double x, double y) {
 		Edge target = null;
+		double closestDistance = CLICK_ACCURACY_EDGE * CLICK_ACCURACY_EDGE;
 		
-		// This will hold the slopes of the calculated lines
-		double closestDistance = 100000000.0;
-			
-		for (Edge e : edges) {
+		// Only edges whose bounding boxes come near the point can be close enough
+		gridEdgeResults.clear();
+		edgeGrid.query((int)Math.floor(x - CLICK_ACCURACY_EDGE), (int)Math.floor(y - CLICK_ACCURACY_EDGE),
+				(int)Math.ceil(x + CLICK_ACCURACY_EDGE), (int)Math.ceil(y + CLICK_ACCURACY_EDGE),
+				gridEdgeResults);
+		
+		for (int i = 0; i<gridEdgeResults.size(); i++) {
+			Edge e = gridEdgeResults.get(i);
 			double ex1 = e.getSource().getX();
 			double ey1 = e.getSource().getY();
-			double ex2 = e.getDestination().getX();
-			double ey2 = e.getDestination().getY();
-			
-			double dY = (ey1 - ey2);
-			double dX = (ex1 - ex2);
+			double dX = e.getDestination().getX() - ex1;
+			double dY = e.getDestination().getY() - ey1;
 			
-			double eyi = ey1 - (dY/dX)*ex1;
-			double myi = y - (-dX/dY)*x;
+			// Project the point onto the edge. No slopes here, so vertical and
+			// horizontal edges need no special cases; only a zero-length edge does.
+			double len2 = dX*dX + dY*dY;
+			if (0.0 == len2) continue;
+			double t = ((x - ex1)*dX + (y - ey1)*dY) / len2;
 			
-			double edgeSlope = dY/dX;
-			double clickSlope = -dX/dY;
-			
-			double xi, yi;
-
-			// Deal with clickSlope being zero
-			if (0.0 == clickSlope) {
-				xi = ex1;
-				yi = y;
-			}
-			else {
-				xi = (eyi - myi)/((1 - (edgeSlope/clickSlope))*clickSlope);
-				yi = edgeSlope*xi + eyi;
-			}
-			
-			// Check to see if (xi,yi) is actually on the edge
-			if (! (xi > (ex1 < ex2? ex1 : ex2) &&
-					xi < (ex1 > ex2? ex1 : ex2) &&
-					yi > (ey1 < ey2? ey1 : ey2)	&&
-					yi < (ey1 > ey2? ey1 : ey2)))
+			// Check to see if the foot of the perpendicular is actually on the edge
+			if (t <= 0.0 || t >= 1.0)
 				continue;
 			
-			double dist = distance(xi,yi,x,y);
+			double xi = ex1 + t*dX - x;
+			double yi = ey1 + t*dY - y;
+			double dist = xi*xi + yi*yi;
 			
 			if (dist < closestDistance) {
 				target = e;
 				closestDistance = dist;
 			}
 		}
+		gridEdgeResults.clear();
+		
+		return target;
+	}
+	
+	/**
+	 * addNodes(Collection<Node> nodes) - Put some new Nodes on this score.
+	 * 
+	 * @param nodes - The new Nodes
+	 */
+	public void addNodes(Collection<Node> nodes) {
+		for (Node n : nodes)
+			putNode(n);
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).nodesAdded(this, nodes);
+	}
+	
+	/**
+	 * addNode(Node n) - Put a new Node on this score.
+	 */
+	public void addNode(Node n) {
+		addNodes(Collections.singletonList(n));
+	}
+	
+	/**
+	 * addEdges(Collection<Edge> edges) - Put some new Edges on this score.
+	 * Their Nodes should already be on it, with the Edges registered, and
+	 * no two Edges may join the same pair of Nodes.
+	 * 
+	 * @param edges - The new Edges
+	 */
+	public void addEdges(Collection<Edge> edges) {
+		for (Edge e : edges)
+			putEdge(e);
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).edgesAdded(this, edges);
+	}
+	
+	/**
+	 * addEdge(Edge e) - Put a new Edge on this score, as for addEdges().
+	 */
+	public void addEdge(Edge e) {
+		addEdges(Collections.singletonList(e));
+	}
+	
+	/**
+	 * addMetaNodes(Collection<MetaNode> metaNodes) - Put some new MetaNodes on
+	 * this score. Their contents should already be encapsulate()d.
+	 * 
+	 * @param metaNodes - The new MetaNodes
+	 */
+	public void addMetaNodes(Collection<MetaNode> metaNodes) {
+		for (MetaNode m : metaNodes) {
+			putMetaNode(m);
+			for (int i = 0; i<editListeners.size(); i++)
+				editListeners.get(i).metaNodeAdded(this, m);
+		}
+	}
+	
+	/**
+	 * moveNodes(Collection<Node> nodes, int dx, int dy) - Move some Nodes
+	 * (which should be on this score) by the same amount.
+	 */
+	public void moveNodes(Collection<Node> nodes, int dx, int dy) {
+		shiftNodes(nodes, dx, dy);
 		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).nodesMoved(this, nodes, dx, dy);
+	}
+	
+	/**
+	 * removeMetaNode(MetaNode m) - Take a MetaNode off this score, along with
+	 * its Edges, and let go of what it contains (see MetaNode.release()).
+	 * 
+	 * @return True if m was on this score.
+	 */
+	public boolean removeMetaNode(MetaNode m) {
+		if (null == m || ! metaNodes.contains(m)) return false;
 		
-		// No dice, if click is still too far away
-		if (closestDistance > CLICK_ACCURACY_EDGE)
-			target = null;
+		beginEdit();
+		ArrayList<Edge> joined = new ArrayList<Edge>(m.getInboundEdges());
+		joined.addAll(m.getOutboundEdges());
+		removeEdges(joined);
 		
-		return target;
+		ArrayList<Node> contents = new ArrayList<Node>(m.getNodes());
+		metaNodes.remove(m);
+		m.release();
+		invalidate();
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).metaNodeRemoved(this, m, contents);
+		endEdit();
+		return true;
+	}
+	
+	/**
+	 * nodeEditing(Node n) - Let the score know that one of its Nodes is about
+	 * to be edited (see nodeEdited()), so its listeners can see what it was.
+	 */
+	public void nodeEditing(Node n) {
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).nodeEditing(this, n);
+	}
+	
+	/**
+	 * nodeEdited(Node n) - Let the score know that one of its Nodes' events,
+	 * or whether it's prime or legato, has been changed.
+	 */
+	public void nodeEdited(Node n) {
+		invalidate();
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).nodeEdited(this, n);
+	}
+	
+	/**
+	 * beginEdit() - Everything done to the score from here until the matching
+	 * endEdit() is one edit, e.g. as far as undo is concerned. Calls may nest.
+	 */
+	public void beginEdit() {
+		if (0 == editDepth++) {
+			for (int i = 0; i<editListeners.size(); i++)
+				editListeners.get(i).editBegun(this);
+		}
+	}
+	
+	public void endEdit() {
+		if (editDepth <= 0) return;
+		
+		if (0 == --editDepth) {
+			for (int i = 0; i<editListeners.size(); i++)
+				editListeners.get(i).editEnded(this);
+		}
+	}
+	
+	/**
+	 * addEditListener(EditListener l)
+	 * 
+	 * @param l - Who to tell about every edit made to this score from now on.
+	 * Loading more of a lazily opened score isn't an edit.
+	 */
+	public void addEditListener(EditListener l) {
+		editListeners.add(l);
+	}
+	
+	public void removeEditListener(EditListener l) {
+		editListeners.remove(l);
+	}
+	
+	/**
+	 * hasNode(Node n)
+	 * 
+	 * @return - True if n is on this score.
+	 */
+	public boolean hasNode(Node n) {
+		return nodes.contains(n);
 	}
 	
 	/**
@@ -273,7 +570,7 @@ public class Score implements ActionListener, MouseListener {
 	 * 
 	 * @return - A list of all the nodes on this score.
 	 */
-	public ArrayList<Node> getNodes() {
+	public Collection<Node> getNodes() {
 		return nodes;
 	}
 	
@@ -282,8 +579,82 @@ public class Score implements ActionListener, MouseListener {
 	 * 
 	 * @return - A list of all the edges on this score.
 	 */
-	public ArrayList<Edge> getEdges() {
-		return edges;
+	public Collection<Edge> getEdges() {
+		return edges.values();
+	}
+	
+	/**
+	 * findEdge(Node from, Node to)
+	 * 
+	 * @return - The edge from one node to another, or null if there isn't one.
+	 */
+	public Edge findEdge(Node from, Node to) {
+		return edges.get(Edge.key(from, to));
+	}
+	
+	/**
+	 * getSeed()
+	 * 
+	 * @return - The master seed that playback of this score is derived from.
+	 * Two playbacks with the same seed are identical.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * setSeed(long seed)
+	 * 
+	 * @param seed - New master seed for playback of this score.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		
+		for (int i = 0; i<editListeners.size(); i++)
+			editListeners.get(i).seedChanged(this);
+	}
+	
+	/**
+	 * getNextSerial(), setNextSerial(int nextSerial)
+	 * 
+	 * The serial (see Node.getSerial()) that the next new Node on this score
+	 * will get. Serials are never used twice on the same score.
+	 */
+	public int getNextSerial() {
+		return nextSerial;
+	}
+	
+	public void setNextSerial(int nextSerial) {
+		this.nextSerial = nextSerial;
+	}
+	
+	/**
+	 * serialOf(Node n)
+	 * 
+	 * @return n's serial, after giving it one if it doesn't have one yet.
+	 */
+	int serialOf(Node n) {
+		if (n.getSerial() < 0)
+			n.setSerial(nextSerial++);
+		else if (n.getSerial() >= nextSerial)
+			nextSerial = n.getSerial() + 1;
+		
+		return n.getSerial();
+	}
+	
+	/**
+	 * getPrimeNodes()
+	 * 
+	 * @return - A list of the nodes where playback begins.
+	 */
+	public ArrayList<Node> getPrimeNodes() {
+		ArrayList<Node> primeNodes = new ArrayList<Node>();
+		for (Node n : nodes) {
+			if (n.isPrimeNode())
+				primeNodes.add(n);
+		}
+		
+		return primeNodes;
 	}
 	
 	/**
@@ -295,14 +666,85 @@ public class Score implements ActionListener, MouseListener {
 		return metaNodes;
 	}
 	
+	/**
+	 * invalidate()
+	 * 
+	 * Note that the score has been edited. Playback won't hear about it until
+	 * the next commit().
+	 */
+	public void invalidate() {
+		dirty = true;
+	}
+	
+	/**
+	 * commit()
+	 * 
+	 * Publish a new snapshot for playback, if the score has been edited since
+	 * the last one. Call this once an edit is finished (e.g. on mouse release),
+	 * rather than after every little change. Snapshots go out at most once a
+	 * frame: if there was one only just now, this one is put off until the
+	 * frame is up, and takes in every commit() made meanwhile.
+	 */
+	public void commit() {
+		if (dirty && ! pending) {
+			long wait = lastPublish + PUBLISH_INTERVAL * 1000000L - System.nanoTime();
+			if (wait <= 0)
+				publish();
+			else {
+				pending = true;
+				publisher.setInitialDelay((int)(wait / 1000000L) + 1);
+				publisher.start();
+			}
+		}
+		
+		updateOverlay();
+	}
+	
+	/**
+	 * flush()
+	 * 
+	 * Like commit(), but publish straight away, for when playback needs to
+	 * have everything right now (e.g. before it starts).
+	 */
+	public void flush() {
+		if (dirty || pending)
+			publish();
+		
+		updateOverlay();
+	}
+	
+	/**
+	 * publish()
+	 * 
+	 * Compile the score into a new snapshot and hand it to playback, whether
+	 * or not the score looks edited. Must be called from the thread that edits
+	 * the score (the GUI thread).
+	 */
+	public void publish() {
+		dirty = false;
+		pending = false;
+		lastPublish = System.nanoTime();
+		snapshot = new ScoreSnapshot(nodes, edges.values(), metaNodes, ++snapshotVersion);
+	}
+	
+	/**
+	 * getSnapshot()
+	 * 
+	 * Safe to call from any thread.
+	 * 
+	 * @return - The most recently published snapshot of this score.
+	 */
+	public ScoreSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
 	/**
 	 * getSelectedNodes()
 	 * 
 	 * @return - A list of all the nodes that are currently selected ("active" nodes)
 	 */
 	public ArrayList<Node> getSelectedNodes() {
-		Collections.sort(activeNodes, ncomp);
-		return activeNodes;
+		return activeNodes.items();
 	}
 	
 	/**
@@ -311,7 +753,7 @@ public class Score implements ActionListener, MouseListener {
 	 * @return - A list of all the edges that are currently selected ("active" edges)
 	 */
 	public ArrayList<Edge> getSelectedEdges() {
-		return activeEdges;
+		return activeEdges.items();
 	}
 	
 	/**
@@ -320,9 +762,6 @@ public class Score implements ActionListener, MouseListener {
 	 * Clears all the currently selected Nodes.
 	 */
 	public void clearActiveNodes() {
-		for (Node n : activeNodes)
-			n.deselect();
-		
 		activeNodes.clear();
 	}
 	
@@ -332,9 +771,6 @@ public class Score implements ActionListener, MouseListener {
 	 * Clears all the currently selected Edges.
 	 */
 	public void clearActiveEdges() {
-		for (Edge e : activeEdges)
-			e.deselect();
-		
 		activeEdges.clear();
 	}
 	
@@ -343,7 +779,6 @@ public class Score implements ActionListener, MouseListener {
 	 * @param n - Node to be selected.
 	 */
 	public void selectNodes(Node n) {
-		n.select();
 		activeNodes.add(n);
 	}
 	
@@ -352,7 +787,6 @@ public class Score implements ActionListener, MouseListener {
 	 * @param e - Edge to be selected.
 	 */
 	public void selectEdges(Edge e) {
-		e.select();
 		activeEdges.add(e);
 	}
 	
@@ -362,9 +796,7 @@ public class Score implements ActionListener, MouseListener {
 	 */
 	public void selectNodes(Collection<Node> nodes) {
 		for (Node n : nodes)
-			n.select();
-		
-		activeNodes.addAll(nodes);
+			activeNodes.add(n);
 	}
 	
 	/**
@@ -373,9 +805,7 @@ public class Score implements ActionListener, MouseListener {
 	 */
 	public void selectEdges(Collection<Edge> edges) {
 		for (Edge e : edges)
-			e.select();
-		
-		activeEdges.addAll(edges);
+			activeEdges.add(e);
 	}
 
 	/**
@@ -387,15 +817,15 @@ public class Score implements ActionListener, MouseListener {
 			int avgX, avgY;
 			avgX = avgY = 0;
 
-			for (Node n : s.getSelectedNodes()) {
+			for (Node n : getSelectedNodes()) {
 				avgX += n.getX();
 				avgY += n.getY();
 			}
-			avgX = (int)((double)avgX / s.getSelectedNodes().size());
-			avgY = (int)((double)avgY / s.getSelectedNodes().size());
+			avgX = (int)((double)avgX / getSelectedNodes().size());
+			avgY = (int)((double)avgY / getSelectedNodes().size());
 			
 			encapsulateNodes(new MetaNode(parent,
-					getMetaNodes().size(),
+					nextMetaID++,
 					avgX,
 					avgY),
 					getSelectedNodes());
@@ -410,12 +840,9 @@ public class Score implements ActionListener, MouseListener {
 	 * @param m		- The MetaNode that should hold the encapsulated Nodes
 	 * @param nodes - A Collection of Nodes to be encapsulated by a MetaNode
 	 */
-	private void encapsulateNodes(MetaNode m, Collection<Node> nodes) {
-		if (! metaNodes.contains(m))
-			metaNodes.add(m);
-		
-		ArrayList<Node> encNodes = m.getNodes();
-		encNodes.addAll(nodes);
+	public void encapsulateNodes(MetaNode m, Collection<Node> nodes) {
+		m.encapsulate(nodes);
+		addMetaNodes(Collections.singletonList(m));
 	}
 	
 	/*******************************************************
@@ -425,24 +852,296 @@ public class Score implements ActionListener, MouseListener {
 	 ******************************************************/
 	
 	public void render() {
-		try {
-			parent.background(150);
-			
-			// Drawable objects that need to be rendered
-			sr.render();
-			
-			for (Edge e : edges) {
-				e.render();
+		// The GUI may be adding and removing things while we draw. Draw the
+		// latest published snapshot instead: one volatile read per frame, and
+		// nothing in it ever changes. (Nodes still move in place while being
+		// dragged, which is fine; their positions are read as they're drawn.)
+		ScoreSnapshot scene = snapshot;
+		boolean moving = dragging;
+		Viewport v = view;
+		
+		// Everything that isn't changing comes from the static layer, which is
+		// only redrawn when the score is edited, a drag starts or ends, or the
+		// view moves.
+		if (null == layer || scene.getVersion() != layerVersion || moving != layerMoving ||
+				v != layerView || layer.width != parent.width || layer.height != parent.height)
+			renderLayer(scene, moving, v);
+		
+		parent.imageMode(PApplet.CORNER);
+		parent.image(layer, 0, 0);
+		
+		// Catch up on what playback has been doing, and work out the highlights
+		updateGlow(System.nanoTime());
+		
+		parent.pushMatrix();
+		v.apply(parent.g);
+		
+		// Drawable objects that need to be rendered
+		sr.render();
+		
+		// Then whatever looks different from the layer: the selection (which may
+		// be moving), and nodes that are playing. Only what's on screen.
+		int x1 = (int)Math.floor(v.scoreX(0)) - CULL_MARGIN;
+		int y1 = (int)Math.floor(v.scoreY(0)) - CULL_MARGIN;
+		int x2 = (int)Math.ceil(v.scoreX(parent.width)) + CULL_MARGIN;
+		int y2 = (int)Math.ceil(v.scoreY(parent.height)) + CULL_MARGIN;
+		boolean detailed = v.getZoom() >= DETAIL_ZOOM;
+		
+		for (Edge e : overlayEdges) {
+			if (overlaps(e, x1, y1, x2, y2)) {
+				if (detailed)
+					e.render();
+				else
+					e.renderSimple(parent.g, v.getZoom());
 			}
-			for (Node n : nodes) {
-				n.render();
+		}
+		for (Node n : overlayNodes) {
+			if (n.getX() >= x1 && n.getX() <= x2 && n.getY() >= y1 && n.getY() <= y2) {
+				if (detailed)
+					n.render();
+				else
+					n.renderSimple(parent.g, v.getZoom());
 			}
-
+		}
+		for (int i = 0; i<glowing.size(); i++) {
+			Node n = glowing.get(i);
+			if (! n.isSelected() && n.getX() >= x1 && n.getX() <= x2 && n.getY() >= y1 && n.getY() <= y2) {
+				if (detailed)
+					n.render();
+				else
+					n.renderSimple(parent.g, v.getZoom());
+			}
+		}
+		
+		parent.popMatrix();
+	}
+	
+	/**
+	 * updateGlow(long now)
+	 * 
+	 * Drain the visit feed, and bring the glow of every node that's playing
+	 * (or fading out) up to date. Nodes that have finished fading are
+	 * forgotten, so this costs as much as there is playing, not as much as
+	 * there is score.
+	 * 
+	 * @param now - System.nanoTime()
+	 */
+	private void updateGlow(long now) {
+		if (glowCleared) {
+			glowCleared = false;
+			for (int i = 0; i<glowing.size(); i++) {
+				glowing.get(i).clearGlow();
+				glowing.get(i).setGlowing(false);
+			}
+			glowing.clear();
+		}
+		
+		visits.drain(now, glowUpdater);
+		
+		for (int i = glowing.size() - 1; i>=0; i--) {
+			Node n = glowing.get(i);
+			if (n.updateGlow(now) <= 0.0f) {
+				// Order doesn't matter: swap the last one into the hole
+				n.setGlowing(false);
+				int last = glowing.size() - 1;
+				glowing.set(i, glowing.get(last));
+				glowing.remove(last);
+			}
+		}
+	}
+	
+	/**
+	 * renderLayer(ScoreSnapshot scene, boolean moving, Viewport v)
+	 * 
+	 * Redraw the static layer, with only what's on screen in it.
+	 * 
+	 * @param scene - What to draw
+	 * @param moving - If true, leave out the selected nodes and their edges, which
+	 * are being dragged around (and so are drawn every frame instead).
+	 * @param v - Which part of the scene to draw
+	 */
+	private void renderLayer(ScoreSnapshot scene, boolean moving, Viewport v) {
+		if (null == layer || layer.width != parent.width || layer.height != parent.height)
+			layer = parent.createGraphics(parent.width, parent.height, PApplet.JAVA2D);
+		
+		visibleNodes.clear();
+		visibleEdges.clear();
+		scene.queryScene((int)Math.floor(v.scoreX(0)) - CULL_MARGIN, (int)Math.floor(v.scoreY(0)) - CULL_MARGIN,
+				(int)Math.ceil(v.scoreX(layer.width)) + CULL_MARGIN, (int)Math.ceil(v.scoreY(layer.height)) + CULL_MARGIN,
+				visibleNodes, visibleEdges);
+		
+		// Far enough out, detail is just noise (and time): dots and plain lines
+		boolean detailed = v.getZoom() >= DETAIL_ZOOM;
+		
+		layer.beginDraw();
+		layer.smooth();
+		layer.background(150);
+		layer.pushMatrix();
+		v.apply(layer);
+		
+		for (int i = 0; i<visibleEdges.size(); i++) {
+			Edge e = visibleEdges.get(i);
+			if (moving && (e.getSource().isSelected() || e.getDestination().isSelected()))
+				continue;
 			
-		} catch (ConcurrentModificationException e) {
-			// TODO: Can we prevent this from happening, rather than catching
-			// the exception here?
+			if (detailed)
+				e.renderStatic(layer);
+			else
+				e.renderSimple(layer, v.getZoom());
 		}
+		for (int i = 0; i<visibleNodes.size(); i++) {
+			Node n = visibleNodes.get(i);
+			if (moving && n.isSelected())
+				continue;
+			
+			if (detailed)
+				n.renderStatic(layer);
+			else
+				n.renderSimple(layer, v.getZoom());
+		}
+		
+		layer.popMatrix();
+		layer.endDraw();
+		
+		layerVersion = scene.getVersion();
+		layerMoving = moving;
+		layerView = v;
+	}
+	
+	
+	/**
+	 * getVisitFeed()
+	 * 
+	 * @return Where playback should announce the nodes it visits, so they
+	 * can be shown playing.
+	 */
+	public VisitFeed getVisitFeed() {
+		return visits;
+	}
+	
+	/**
+	 * clearGlow() - Stop showing anything as playing, once playback has
+	 * stopped. The visits still waiting are thrown away right now, so a
+	 * restart can't lose its own; the Nodes go dark on the next frame.
+	 */
+	public void clearGlow() {
+		visits.reset();
+		glowCleared = true;
+	}
+	
+	
+	/**********
+	 * VIEWPORT
+	 **********/
+	
+	/**
+	 * getViewport()
+	 * 
+	 * @return Which part of the score is on screen.
+	 */
+	public Viewport getViewport() {
+		return view;
+	}
+	
+	/**
+	 * zoom(double factor, int screenX, int screenY)
+	 * 
+	 * Zoom in (factor > 1) or out (factor < 1), keeping the score still under
+	 * a point on screen.
+	 */
+	public void zoom(double factor, int screenX, int screenY) {
+		view = view.zoomedBy(factor, screenX, screenY);
+		loadView();
+	}
+	
+	/**
+	 * pan(int dx, int dy)
+	 * 
+	 * Slide the score across the screen by (dx, dy) screen pixels.
+	 */
+	public void pan(int dx, int dy) {
+		view = view.pannedBy(dx, dy);
+		loadView();
+	}
+	
+	/**
+	 * resetView() - Back to actual size, with the score's origin at the top-left.
+	 */
+	public void resetView() {
+		view = Viewport.DEFAULT;
+		loadView();
+	}
+	
+	/**
+	 * scoreX(int screenX), scoreY(int screenY)
+	 * 
+	 * @return Where a point on screen (e.g. the mouse) is on the score.
+	 */
+	public int scoreX(int screenX) {
+		return (int)Math.round(view.scoreX(screenX));
+	}
+	
+	public int scoreY(int screenY) {
+		return (int)Math.round(view.scoreY(screenY));
+	}
+	
+	
+	/**************
+	 * LAZY LOADING
+	 **************/
+	
+	/**
+	 * setSource(MappedLayer source)
+	 * 
+	 * @param source - Where to load the rest of this score from, as it's
+	 * needed. Everything in it counts as part of the score.
+	 */
+	public void setSource(MappedLayer source) {
+		this.source = source;
+	}
+	
+	/**
+	 * isLoaded()
+	 * 
+	 * @return - True if all of this score is in memory.
+	 */
+	public boolean isLoaded() {
+		return null == source;
+	}
+	
+	/**
+	 * loadView() - Load whatever is on screen that hasn't been yet, and
+	 * show it. Called whenever the view moves.
+	 */
+	public void loadView() {
+		if (null == source)
+			return;
+		
+		Viewport v = view;
+		if (source.loadArea((int)Math.floor(v.scoreX(0)) - CULL_MARGIN, (int)Math.floor(v.scoreY(0)) - CULL_MARGIN,
+				(int)Math.ceil(v.scoreX(parent.width)) + CULL_MARGIN, (int)Math.ceil(v.scoreY(parent.height)) + CULL_MARGIN))
+			commit();
+	}
+	
+	/**
+	 * loadPlayable() - Load everything playback could get to, before
+	 * playing or rendering. It isn't published until the next commit().
+	 */
+	public void loadPlayable() {
+		if (null != source)
+			source.loadPlayable();
+	}
+	
+	/**
+	 * loadAll() - Load the rest of this score, e.g. before saving it. It
+	 * isn't published until the next commit().
+	 */
+	public void loadAll() {
+		if (null == source)
+			return;
+		
+		source.loadAll();
+		source = null;
 	}
 	
 	
@@ -470,15 +1169,12 @@ public class Score implements ActionListener, MouseListener {
 				// Clear all selected Nodes
 				clearActiveNodes();
 
-				if (distance(me.getX(), me.getY(), prevX, prevY) < CLICK_ACCURACY_NODE) {
-					Node newNode = new Node(parent, me.getX(), me.getY());
-					newNode.select();
-					nodes.add(newNode);
+				int mX = scoreX(me.getX());
+				int mY = scoreY(me.getY());
+				if (distance(mX, mY, prevX, prevY) < CLICK_ACCURACY_NODE) {
+					Node newNode = new Node(parent, mX, mY);
+					addNode(newNode);
 					activeNodes.add(newNode);
-
-					// Keep our lists of nodes sorted, so we can
-					// search / delete & do other things quickly.
-					Collections.sort(nodes, ncomp);
 				}
 			}
 
@@ -505,8 +1201,9 @@ public class Score implements ActionListener, MouseListener {
 	 * Handles mouseDown events.
 	 */
 	public void mousePressed(MouseEvent me) {
-		prevX = me.getX();
-		prevY = me.getY();
+		prevX = scoreX(me.getX());
+		prevY = scoreY(me.getY());
+		dragX = dragY = 0;
 
 		// A node that may potentially be selected
 		Node selNode = findNodeAtPoint(prevX, prevY);
@@ -521,10 +1218,7 @@ public class Score implements ActionListener, MouseListener {
 			if (null != selNode) {
 				// If we're in a moving sort of mood...
 				if (parent.getMode() == GenSeq.MOVE_NODES || parent.mouseButton == PApplet.CENTER)
-					if (! selNode.isSelected()) {
-						selNode.select();
-						activeNodes.add(selNode);
-					}
+					activeNodes.add(selNode);
 			}
 			
 		} else {
@@ -551,45 +1245,51 @@ public class Score implements ActionListener, MouseListener {
 			if (null != selEdge && selNode == null) {
 				// If we're in a moving sort of mood...
 				if (parent.getMode() == GenSeq.MOVE_NODES || parent.mouseButton == PApplet.CENTER)
-					selEdge.select();
-				
-				activeEdges.add(selEdge);
+					activeEdges.add(selEdge);
 			}
 		} else {
 			// Lift edge lock
 			activeEdgeLock = false;
 		}
-
+		
+		updateOverlay();
 	}
 
 	@Override
 	public void mouseReleased(MouseEvent me) {
 
+		int mX = scoreX(me.getX());
+		int mY = scoreY(me.getY());
+		
 		// See if we were connecting two nodes with an edge, and create that edge.
-		if (distance(me.getX(), me.getY(), prevX, prevY) >= CLICK_ACCURACY_NODE) {
+		if (distance(mX, mY, prevX, prevY) >= CLICK_ACCURACY_NODE) {
 			Node n1 = findNodeAtPoint(prevX, prevY);
-			Node n2 = findNodeAtPoint(me.getX(), me.getY());
+			Node n2 = findNodeAtPoint(mX, mY);
 			
-			if (null != n1 && null != n2) {
+			// Make sure this edge doesn't already exist.
+			if (null != n1 && null != n2 && null == findEdge(n1, n2)) {
 				Edge userEdge = new Edge(parent, n1, n2);
 				
-				// Make sure this edge doesn't already exist.
-				for (Edge e : edges) {
-					if (e.equals(userEdge)) return;
-				}
-				
-				edges.add(userEdge);
 				n1.registerEdge(userEdge);
 				n2.registerEdge(userEdge);
-				
-				// Keep our lists of nodes sorted, so we can
-				// search / delete & do other things quickly.
-				Collections.sort(edges, ecomp);
+				addEdge(userEdge);
 			}
 		}
 		
+		// A drag is one move, however many steps it took
+		if (dragging && (0 != dragX || 0 != dragY)) {
+			ArrayList<Node> moved = activeNodes.items();
+			for (int i = 0; i<editListeners.size(); i++)
+				editListeners.get(i).nodesMoved(this, moved, dragX, dragY);
+		}
+		dragX = dragY = 0;
+		
 		// Hide the selection rectangle
 		sr.setVisible(false);
+		
+		// Done moving things; the static layer gets them back on the next commit
+		dragging = false;
+		updateOverlay();
 	}
 	
 	/**
@@ -598,28 +1298,28 @@ public class Score implements ActionListener, MouseListener {
 	 * rendering problems, so we use processing's native mouseDragged, which
 	 * necessitates this method so GenSeq can forward mouse dragging events here.
 	 * 
-	 * @param mX - current x-coordinate of mouse
-	 * @param mY - current y-coordinate of mouse
+	 * @param screenX - current x-coordinate of mouse, on screen
+	 * @param screenY - current y-coordinate of mouse, on screen
 	 */
-	public void mouseDragged(int mX, int mY) {
+	public void mouseDragged(int screenX, int screenY) {
+		int mX = scoreX(screenX);
+		int mY = scoreY(screenY);
 		
 		// If we can move nodes...
 		if (parent.getMode() == GenSeq.MOVE_NODES || parent.mouseButton == PApplet.CENTER) {
 			// If there are already nodes selected...
-			if (null != activeNodes && activeNodes.size() > 0 && (! activeNodeLock)) {
+			if (! activeNodes.isEmpty() && (! activeNodeLock)) {
 				
 				int deltaX = mX - prevX;
 				int deltaY = mY - prevY;
 				
-				for (Node n : activeNodes) {
-					n.setX(n.getX() + deltaX);
-					n.setY(n.getY() + deltaY);
-
-					// Resize the edges
-					for (Edge e : n.getEdges())
-						e.calculateLength();
-					
-				}
+				// The selection is on the move: draw it over the static layer, not in it
+				dragging = true;
+				
+				// Edge lengths change, but playback hears about it on mouse release
+				shiftNodes(activeNodes.items(), deltaX, deltaY);
+				dragX += deltaX;
+				dragY += deltaY;
 				
 				prevX = mX;
 				prevY = mY;
@@ -634,62 +1334,59 @@ public class Score implements ActionListener, MouseListener {
 				if (! sr.isVisible()) {
 					sr.setAlpha(SELECTION_ALPHA);
 					sr.setStrokeAlpha(SELECTION_STROKE_ALPHA);
+					
+					// A new rectangle. Anything selected outside of it goes; after
+					// this, we only need to look at what the rectangle's edges sweep over.
+					sr.setBounds(prevX, prevY, mX, mY);
+					for (Node n : activeNodes.items())
+						if (! sr.contains(n.getX(), n.getY()))
+							activeNodes.remove(n);
+					for (Edge e : activeEdges.items())
+						if (! insideSelection(e))
+							activeEdges.remove(e);
+					selEmpty = true;
 				}
 				
 				sr.setBounds(prevX, prevY, mX, mY);
 				
-				// Find nodes within selected area
-				// TODO: This involves two O(n) operations, every time the mouse is moved.
-				// Can this be faster?
-				for (Node n : nodes) {
-					if (n.getX() >= sr.getX() &&
-							n.getX() <= sr.getX2() &&
-							n.getY() >= sr.getY() &&
-							n.getY() <= sr.getY2()) {
-						
-						if (! activeNodes.contains(n)) {
-							activeNodes.add(n);
-							n.select();
-						}
-
-					}
-					else {
-						n.deselect();
-						activeNodes.remove(n);
-					}
-						
+				// Only nodes in the strips between the old rectangle and the new one can
+				// have gone in or out; and only edges touching those nodes.
+				gridResults.clear();
+				if (selEmpty)
+					nodeGrid.query(sr.getX(), sr.getY(), sr.getX2(), sr.getY2(), gridResults);
+				else {
+					queryDifference(selX1, selY1, selX2, selY2, sr.getX(), sr.getY(), sr.getX2(), sr.getY2(), gridResults);
+					queryDifference(sr.getX(), sr.getY(), sr.getX2(), sr.getY2(), selX1, selY1, selX2, selY2, gridResults);
 				}
 				
-				// Find edges within selected area
-				// TODO: This involves two O(n) operations, every time the mouse is moved.
-				// Can this be faster?
-				for (Edge e : edges) {
-					int lowx = (e.getSource().getX() < e.getDestination().getX()? e.getSource().getX() : e.getDestination().getX());
-					int highx = (e.getSource().getX() > e.getDestination().getX()? e.getSource().getX() : e.getDestination().getX());
-					int lowy = (e.getSource().getY() < e.getDestination().getY()? e.getSource().getY() : e.getDestination().getY());
-					int highy = (e.getSource().getY() > e.getDestination().getY()? e.getSource().getY() : e.getDestination().getY());
+				for (int i = 0; i<gridResults.size(); i++) {
+					Node n = gridResults.get(i);
+					if (sr.contains(n.getX(), n.getY()))
+						activeNodes.add(n);
+					else
+						activeNodes.remove(n);
 					
-					if (lowx >= sr.getX() &&
-							highx <= sr.getX2() &&
-							lowy >= sr.getY() &&
-							highy <= sr.getY2()) {
-						
-						if (! activeEdges.contains(e)) {
+					ArrayList<Edge> incident = n.getEdges();
+					for (int j = 0; j<incident.size(); j++) {
+						Edge e = incident.get(j);
+						if (insideSelection(e))
 							activeEdges.add(e);
-							e.select();
-						}
-
-					}
-					else {
-						e.deselect();
-						activeEdges.remove(e);
+						else
+							activeEdges.remove(e);
 					}
-						
 				}
+				gridResults.clear();
+				
+				selX1 = sr.getX();
+				selY1 = sr.getY();
+				selX2 = sr.getX2();
+				selY2 = sr.getY2();
+				selEmpty = false;
 				
 			}
 		}
 		
+		updateOverlay();
 	}
 	
 	
@@ -700,6 +1397,140 @@ public class Score implements ActionListener, MouseListener {
 	 * PRIVATE METHODS
 	 *****************/
 	
+	/**
+	 * updateOverlay()
+	 * 
+	 * If the selection has changed, hand the draw loop a fresh copy of it (and
+	 * of the edges touching it) to draw over the static layer.
+	 */
+	private void updateOverlay() {
+		if (overlayNodeVersion == activeNodes.getVersion() &&
+				overlayEdgeVersion == activeEdges.getVersion())
+			return;
+		
+		ArrayList<Node> selNodes = activeNodes.items();
+		LinkedHashSet<Edge> selEdges = new LinkedHashSet<Edge>(activeEdges.items());
+		for (Node n : selNodes)
+			selEdges.addAll(n.getEdges());
+		
+		overlayEdges = selEdges.toArray(new Edge[selEdges.size()]);
+		overlayNodes = selNodes.toArray(new Node[selNodes.size()]);
+		overlayNodeVersion = activeNodes.getVersion();
+		overlayEdgeVersion = activeEdges.getVersion();
+	}
+	
+	/**
+	 * putNode(Node n), putEdge(Edge e), putMetaNode(MetaNode m)
+	 * 
+	 * Put something on this score without it counting as an edit, e.g. when
+	 * loading (see MappedLayer).
+	 */
+	void putNode(Node n) {
+		serialOf(n);
+		nodes.add(n);
+		nodeGrid.insert(n, n.getX(), n.getY(), n.getX(), n.getY());
+		invalidate();
+	}
+	
+	void putEdge(Edge e) {
+		edges.put(e.getKey(), e);
+		gridEdge(e);
+		invalidate();
+	}
+	
+	void putMetaNode(MetaNode m) {
+		serialOf(m);
+		if (m.getMetaID() >= nextMetaID)
+			nextMetaID = m.getMetaID() + 1;
+		if (! metaNodes.contains(m))
+			metaNodes.add(m);
+		invalidate();
+	}
+	
+	/**
+	 * shiftNodes(Collection<Node> nodes, int dx, int dy) - Move some Nodes,
+	 * and everything that depends on where they are.
+	 */
+	private void shiftNodes(Collection<Node> nodes, int dx, int dy) {
+		for (Node n : nodes) {
+			n.setX(n.getX() + dx);
+			n.setY(n.getY() + dy);
+			nodeGrid.move(n, n.getX(), n.getY(), n.getX(), n.getY());
+			
+			// Resize the edges
+			for (Edge e : n.getEdges()) {
+				e.calculateLength();
+				gridEdge(e);
+			}
+		}
+		
+		invalidate();
+	}
+	
+	/**
+	 * gridEdge(Edge e) - File (or re-file) an Edge in the grid under its
+	 * bounding box.
+	 */
+	private void gridEdge(Edge e) {
+		edgeGrid.insert(e, e.getSource().getX(), e.getSource().getY(),
+				e.getDestination().getX(), e.getDestination().getY());
+	}
+	
+	/**
+	 * queryDifference(...)
+	 * 
+	 * Find the Nodes that are inside rectangle A but not inside rectangle B, by
+	 * querying the grid for the (at most four) strips of A that B doesn't cover.
+	 * Corners are inclusive.
+	 * 
+	 * @param result - Where to put the Nodes found
+	 */
+	private void queryDifference(int ax1, int ay1, int ax2, int ay2,
+			int bx1, int by1, int bx2, int by2, ArrayList<Node> result) {
+		
+		// No overlap: all of A
+		if (ax2 < bx1 || bx2 < ax1 || ay2 < by1 || by2 < ay1) {
+			nodeGrid.query(ax1, ay1, ax2, ay2, result);
+			return;
+		}
+		
+		// Above and below B
+		if (ay1 < by1)
+			nodeGrid.query(ax1, ay1, ax2, by1 - 1, result);
+		if (ay2 > by2)
+			nodeGrid.query(ax1, by2 + 1, ax2, ay2, result);
+		
+		// Left and right of B, between those
+		int top = Math.max(ay1, by1);
+		int bottom = Math.min(ay2, by2);
+		if (ax1 < bx1)
+			nodeGrid.query(ax1, top, bx1 - 1, bottom, result);
+		if (ax2 > bx2)
+			nodeGrid.query(bx2 + 1, top, ax2, bottom, result);
+	}
+	
+	/**
+	 * insideSelection(Edge e)
+	 * 
+	 * @return True if both ends of e are inside the selection rectangle.
+	 */
+	private boolean insideSelection(Edge e) {
+		return sr.contains(e.getSource().getX(), e.getSource().getY()) &&
+			sr.contains(e.getDestination().getX(), e.getDestination().getY());
+	}
+	
+	/**
+	 * overlaps(Edge e, int x1, int y1, int x2, int y2)
+	 * 
+	 * @return True if e's bounding box overlaps the rectangle (x1, y1)-(x2, y2).
+	 */
+	private boolean overlaps(Edge e, int x1, int y1, int x2, int y2) {
+		int sx = e.getSource().getX(), sy = e.getSource().getY();
+		int dx = e.getDestination().getX(), dy = e.getDestination().getY();
+		return Math.max(sx, dx) >= x1 && Math.min(sx, dx) <= x2 &&
+			Math.max(sy, dy) >= y1 && Math.min(sy, dy) <= y2;
+	}
+	
 	private double distance(double x1, double y1, double x2, double y2) {
 		return Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 -y2, 2));
 	}
@@ -712,18 +1543,72 @@ public class Score implements ActionListener, MouseListener {
 	 * INTERNAL CLASSES
 	 ******************/
 	
-	private class EdgeComparator implements Comparator<Edge> {
+	/**
+	 * Hears about every edit made to a Score, after it's been made, on the
+	 * thread that made it (the GUI thread). See addEditListener().
+	 */
+	public interface EditListener {
 		
-		public int compare(Edge o1, Edge o2) {
-			return (o1.compareTo(o2));
+		/** What follows, until editEnded(), is one edit (see beginEdit()). */
+		public void editBegun(Score s);
+		
+		public void editEnded(Score s);
+		
+		public void nodesAdded(Score s, Collection<Node> nodes);
+		
+		/** After their Edges have been removed (with edgesRemoved()). */
+		public void nodesRemoved(Score s, Collection<Node> nodes);
+		
+		public void nodesMoved(Score s, Collection<Node> nodes, int dx, int dy);
+		
+		/** n is about to be edited; nodeEdited() follows. */
+		public void nodeEditing(Score s, Node n);
+		
+		/** n's events, or whether it's prime or legato, have changed. */
+		public void nodeEdited(Score s, Node n);
+		
+		public void edgesAdded(Score s, Collection<Edge> edges);
+		
+		public void edgesRemoved(Score s, Collection<Edge> edges);
+		
+		/** m's contents are already encapsulated. */
+		public void metaNodeAdded(Score s, MetaNode m);
+		
+		/** After m's Edges have been removed; m has let go of its contents. */
+		public void metaNodeRemoved(Score s, MetaNode m, Collection<Node> contents);
+		
+		/** s's master seed for playback has changed (see setSeed()). */
+		public void seedChanged(Score s);
+		
+	}
+	
+	/**
+	 * Publishes what commit() put off. Timers go off on the GUI thread.
+	 */
+	private class Publisher implements ActionListener {
+		
+		public void actionPerformed(ActionEvent e) {
+			if (pending)
+				publish();
 		}
 		
 	}
 	
-	private class NodeComparator implements Comparator<Node> {
+	/**
+	 * Keeps track of nodes as the draw loop hears about visits to them.
+	 */
+	private class GlowUpdater implements VisitFeed.Visitor {
 		
-		public int compare(Node o1, Node o2) {
-			return (o1.compareTo(o2));
+		public void visit(Node n, boolean arriving, long time) {
+			if (arriving)
+				n.visitStarted(time);
+			else
+				n.visitEnded(time);
+			
+			if (! n.isGlowing()) {
+				n.setGlowing(true);
+				glowing.add(n);
+			}
 		}
 		
 	}
@@ -772,6 +1657,10 @@ public class Score implements ActionListener, MouseListener {
 			this.y2 = (y2 > y? y2 : y);
 		}
 		
+		public boolean contains(int px, int py) {
+			return (px >= x && px <= x2 && py >= y && py <= y2);
+		}
+		
 		public int getWidth() {
 			return x2 - x;
 		}
@@ -780,10 +1669,10 @@ public class Score implements ActionListener, MouseListener {
 			return y2 - y;
 		}
 		
-		public void render() {
-			setupDrawPrefs();
-			parent.rectMode(PApplet.CORNERS);
-			parent.rect(x, y, x2, y2);
+		public void render(PGraphics pg) {
+			setupDrawPrefs(pg);
+			pg.rectMode(PApplet.CORNERS);
+			pg.rect(x, y, x2, y2);
 		}
 		
 	}
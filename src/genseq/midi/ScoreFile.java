@@ -0,0 +1,1161 @@
+/**
+ * ScoreFile.java
+ *
+ * Saves and opens scores, in a compact binary format. A file holds one
+ * or more layers (Scores), and each layer is stored as columns: all the
+ * Nodes' x-coordinates, then all their y-coordinates, and so on. Events
+ * are kept in a dictionary and Nodes refer to them by number, so events
+ * shared between Nodes are stored (and loaded) once, and stay shared.
+ * Columns are read and written in bulk, never field by field.
+ *
+ * Layout (big-endian):
+ *
+ * 	int MAGIC, int VERSION, int layer count
+ * 	per layer: long seed, long body offset (from the start of the file),
+ * 	           int nodes, edges, events, notes, event refs, MetaNodes,
+ * 	           MetaNode members, MetaNode edges,
+ * 	           int tile size, tiles, tiled Nodes, prime Nodes		(format 2 on)
+ * 	           int next serial								(format 3 on)
+ * 	per layer body, in this order:
+ * 	  Nodes      x[nodes], y[nodes], flags[nodes], metaID[nodes],
+ * 	             serial[nodes] (format 3 on),
+ * 	             eventStart[nodes+1], eventRefs[event refs]
+ * 	  Events     type[events], noteStart[events+1], likelihood[events] (double)
+ * 	  Notes      pitch[notes], velocity[notes]
+ * 	  Edges      source[edges], destination[edges], flags[edges],
+ * 	             likelihood[edges] (double)
+ * 	  MetaNodes  node[MetaNodes], memberStart[MetaNodes+1], members[members],
+ * 	             edgeStart[MetaNodes+1], edges[MetaNode edges]
+ * 	  Index      tileKey[tiles] (long), tileStart[tiles+1], tileNodes[tiled Nodes],
+ * 	             incidentStart[nodes+1], incident[2*edges], metaOf[nodes],
+ * 	             primes[prime Nodes]							(format 2 on)
+ *
+ * Every count, offset and column width is known from the header, so any
+ * column can be found without reading the ones before it. Nodes and
+ * Edges are numbered from 0 in the order they are stored; the events of
+ * Node i are eventRefs[eventStart[i] .. eventStart[i+1]-1], and so on.
+ *
+ * The index is what lets a layer be opened without reading all of it
+ * (see MappedLayer). The Score's own Nodes are bucketed into squares of
+ * tile size by position, and the tiles sorted by tileKey() (x, then y).
+ * The Edges touching Node i are incident[incidentStart[i] ..], metaOf[i]
+ * is the MetaNode Node i is inside (-1 if none), and primes are the
+ * Score's own prime Nodes, where playback begins (inside a MetaNode or
+ * not).
+ *
+ * Serials (see Node.getSerial()) are what the edit journal knows Nodes
+ * by. Files from before format 3 don't have them; there, a Node's serial
+ * is its number in the file.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class ScoreFile {
+
+	/*** FORMAT ***/
+	public static final int MAGIC = 0x47534551;	// "GSEQ"
+	public static final int VERSION = 3;
+	public static final int FILE_HEADER_SIZE = 3 * 4;
+	public static final int LAYER_HEADER_SIZE = 2 * 8 + 13 * 4;
+	public static final int TILE_SIZE = 512;		// Side of an index tile, in score pixels
+
+	// Node flags
+	public static final int NODE_PRIME = 1;
+	public static final int NODE_LEGATO = 2;
+	public static final int NODE_META = 4;		// A MetaNode
+	public static final int NODE_ON_SCORE = 8;	// One of the Score's own Nodes (see Score.getNodes())
+
+	// Edge flags
+	public static final int EDGE_ON_SCORE = 1;	// One of the Score's own Edges (see Score.getEdges())
+
+	private ScoreFile() {
+	}
+
+	/**
+	 * write(File f, List<Score> layers)
+	 *
+	 * Save some scores. Must be called from the thread that edits them. f
+	 * is only replaced once the whole save is on the disk; if saving fails,
+	 * whatever was there is left as it was.
+	 *
+	 * @param f - Where to save
+	 * @param layers - The scores, in order
+	 * @throws IOException
+	 */
+	public static void write(File f, List<Score> layers) throws IOException {
+		ArrayList<Columns> tables = new ArrayList<Columns>();
+		for (Score s : layers)
+			tables.add(new Columns(s));
+		write(f, tables);
+	}
+
+	/**
+	 * writeImages(File f, List<ScoreImage> layers)
+	 *
+	 * Save some scores kept as plain data (see ScoreImage). Makes no Nodes,
+	 * so any thread may call it.
+	 *
+	 * @param f - Where to save
+	 * @param layers - The scores, in order
+	 * @throws IOException
+	 */
+	static void writeImages(File f, List<ScoreImage> layers) throws IOException {
+		ArrayList<Columns> tables = new ArrayList<Columns>();
+		for (ScoreImage s : layers)
+			tables.add(new Columns(s));
+		write(f, tables);
+	}
+
+	/**
+	 * read(File f, GenSeq parent)
+	 *
+	 * Open a file saved by write().
+	 *
+	 * @param f - The file
+	 * @param parent - The applet the scores will be drawn on
+	 * @return The scores (layers) in the file, in order, already published.
+	 * @throws IOException - If the file can't be read, or isn't a score file
+	 * this version understands.
+	 */
+	public static ArrayList<Score> read(File f, GenSeq parent) throws IOException {
+		ArrayList<Score> layers = new ArrayList<Score>();
+		for (Columns c : readColumns(f))
+			layers.add(c.build(parent));
+
+		return layers;
+	}
+
+	/**
+	 * readImages(File f)
+	 *
+	 * Open a file saved by write() as plain data (see ScoreImage). Makes no
+	 * Nodes, so any thread may call it.
+	 *
+	 * @param f - The file
+	 * @return The layers in the file, in order.
+	 * @throws IOException - If the file can't be read, or isn't a score file
+	 * this version understands.
+	 */
+	static ArrayList<ScoreImage> readImages(File f) throws IOException {
+		ArrayList<ScoreImage> layers = new ArrayList<ScoreImage>();
+		for (Columns c : readColumns(f))
+			layers.add(c.image());
+
+		return layers;
+	}
+
+	/**
+	 * build(List<ScoreImage> images, GenSeq parent)
+	 *
+	 * Make Scores out of plain data. Must be called from the thread that will
+	 * edit them.
+	 *
+	 * @param images - The layers, in order
+	 * @param parent - The applet the scores will be drawn on
+	 * @return The scores, already published.
+	 */
+	static ArrayList<Score> build(List<ScoreImage> images, GenSeq parent) throws IOException {
+		ArrayList<Score> layers = new ArrayList<Score>();
+		for (ScoreImage s : images)
+			layers.add(new Columns(s).build(parent));
+
+		return layers;
+	}
+
+	/**
+	 * open(File f, GenSeq parent)
+	 *
+	 * Open a file saved by write(), without reading it: the file is mapped
+	 * into memory, and each Score only makes the Nodes and Edges it needs,
+	 * as it needs them (see MappedLayer and Score.loadView()). Files saved
+	 * before the format had an index are read() instead.
+	 *
+	 * @param f - The file
+	 * @param parent - The applet the scores will be drawn on
+	 * @return The scores (layers) in the file, in order. Nothing has been
+	 * loaded into them yet.
+	 * @throws IOException - If the file can't be read, or isn't a score file
+	 * this version understands.
+	 */
+	public static ArrayList<Score> open(File f, GenSeq parent) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel ch = in.getChannel();
+			long size = ch.size();
+
+			ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, FILE_HEADER_SIZE));
+			int version = readHeader(head, size, f);
+			if (version < 2)
+				return read(f, parent);
+
+			int layerCount = head.getInt();
+			ByteBuffer headers = ch.map(FileChannel.MapMode.READ_ONLY, FILE_HEADER_SIZE, (long)layerCount * LAYER_HEADER_SIZE);
+			ArrayList<Score> layers = new ArrayList<Score>();
+			for (int i = 0; i<layerCount; i++) {
+				Layout l = new Layout(headers, version, size);
+				if (l.size > Integer.MAX_VALUE)
+					throw new IOException("A layer of "+f+" is too big to open");
+
+				// Mappings outlive the channel
+				ByteBuffer body = ch.map(FileChannel.MapMode.READ_ONLY, l.offset, l.size);
+				Score score = new Score(parent);
+				score.setSeed(l.seed);
+				score.setNextSerial(l.nextSerial);
+				score.setSource(new MappedLayer(body, l, score, parent));
+				layers.add(score);
+			}
+
+			return layers;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * readHeader(ByteBuffer buf, long size, File f)
+	 *
+	 * Check that buf (positioned at the start of the file) holds a score file
+	 * we can read.
+	 *
+	 * @param size - How long the whole file is
+	 * @return Which version of the format it is. buf is left at the layer count.
+	 * @throws IOException - If it isn't a score file, or is from a later version.
+	 */
+	static int readHeader(ByteBuffer buf, long size, File f) throws IOException {
+		if (buf.remaining() < FILE_HEADER_SIZE || MAGIC != buf.getInt())
+			throw new IOException(f+" is not a score file");
+
+		int version = buf.getInt();
+		if (version > VERSION)
+			throw new IOException(f+" was saved by a newer version (format "+version+")");
+
+		int layerCount = buf.getInt(buf.position());
+		if (layerCount < 0 || FILE_HEADER_SIZE + (long)layerCount * layerHeaderSize(version) > size)
+			throw new IOException(f+" is damaged");
+
+		return version;
+	}
+
+	/**
+	 * layerHeaderSize(int version)
+	 *
+	 * @return How big each layer's header is in files of that version.
+	 */
+	static int layerHeaderSize(int version) {
+		if (version < 2)
+			return 2 * 8 + 8 * 4;
+		if (version < 3)
+			return 2 * 8 + 12 * 4;
+		return LAYER_HEADER_SIZE;
+	}
+
+	/**
+	 * tileOf(int coordinate, int tileSize)
+	 *
+	 * @return Which tile (row or column) a coordinate falls in. Rounds down,
+	 * so negative coordinates work too.
+	 */
+	static int tileOf(int coordinate, int tileSize) {
+		return (coordinate >= 0? coordinate / tileSize : -((-coordinate - 1) / tileSize) - 1);
+	}
+
+	/**
+	 * tileKey(int tx, int ty)
+	 *
+	 * @return The tile's key in the index. Keys sort by column, then row.
+	 */
+	static long tileKey(int tx, int ty) {
+		return ((long)tx << 32) | ((ty ^ 0x80000000) & 0xFFFFFFFFL);
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private static void write(File f, ArrayList<Columns> tables) throws IOException {
+		ArrayList<Layout> layouts = new ArrayList<Layout>();
+		long size = FILE_HEADER_SIZE + (long)LAYER_HEADER_SIZE * tables.size();
+		for (Columns c : tables) {
+			Layout l = new Layout(c, size);
+			layouts.add(l);
+			size += l.size;
+		}
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Score too big to save ("+size+" bytes)");
+
+		ByteBuffer buf = ByteBuffer.allocate((int)size);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(tables.size());
+		for (Layout l : layouts)
+			l.put(buf);
+		for (Columns c : tables)
+			c.put(buf);
+
+		// Into a file of its own first, so that the one being replaced (which
+		// may still be mapped, see open()) is left whole if this goes wrong
+		buf.flip();
+		File dir = f.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(f.getName() + ".", ".tmp", dir);
+		try {
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				FileChannel ch = out.getChannel();
+				while (buf.hasRemaining())
+					ch.write(buf);
+				ch.force(true);
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();		// Already gone, unless something went wrong
+		}
+	}
+
+	/**
+	 * readColumns(File f) - Read every layer of a file, without its index.
+	 */
+	private static ArrayList<Columns> readColumns(File f) throws IOException {
+		ByteBuffer buf;
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel ch = in.getChannel();
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IOException(f+" is too big to open");
+
+			buf = ByteBuffer.allocate((int)ch.size());
+			while (buf.hasRemaining())
+				if (ch.read(buf) < 0)
+					throw new IOException("Unexpected end of "+f);
+			buf.flip();
+		} finally {
+			in.close();
+		}
+
+		int version = readHeader(buf, buf.limit(), f);
+		int layerCount = buf.getInt();
+		ArrayList<Columns> tables = new ArrayList<Columns>();
+		for (int i = 0; i<layerCount; i++) {
+			buf.position(FILE_HEADER_SIZE + i * layerHeaderSize(version));
+			Layout l = new Layout(buf, version, buf.limit());
+			tables.add(new Columns(buf, l));
+		}
+
+		return tables;
+	}
+
+	private static int[] getInts(ByteBuffer buf, int n) {
+		int[] a = new int[n];
+		buf.asIntBuffer().get(a);
+		buf.position(buf.position() + 4*n);
+		return a;
+	}
+
+	private static double[] getDoubles(ByteBuffer buf, int n) {
+		double[] a = new double[n];
+		buf.asDoubleBuffer().get(a);
+		buf.position(buf.position() + 8*n);
+		return a;
+	}
+
+	private static void putInts(ByteBuffer buf, int[] a) {
+		buf.asIntBuffer().put(a);
+		buf.position(buf.position() + 4*a.length);
+	}
+
+	private static void putLongs(ByteBuffer buf, long[] a) {
+		buf.asLongBuffer().put(a);
+		buf.position(buf.position() + 8*a.length);
+	}
+
+	private static void putDoubles(ByteBuffer buf, double[] a) {
+		buf.asDoubleBuffer().put(a);
+		buf.position(buf.position() + 8*a.length);
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * Where everything in one layer is: its header, read or about to be
+	 * written, and the offset of each column from the start of the body.
+	 */
+	static class Layout {
+
+		int version;
+		long seed;
+		long offset;	// Of the body, from the start of the file
+		long size;		// Of the body
+
+		// Counts
+		int n, m, e, notes, refs, q, memberCount, metaEdgeCount;
+		int tileSize, tiles, tiled, primeCount;
+		int nextSerial;
+
+		// Column offsets
+		long x, y, nodeFlags, metaID, serial, eventStart, eventRefs;
+		long type, noteStart, eventLikelihood;
+		long pitch, velocity;
+		long source, destination, edgeFlags, edgeLikelihood;
+		long metaNode, memberStart, members, metaEdgeStart, metaEdges;
+		long tileKey, tileStart, tileNodes, incidentStart, incident, metaOf, primes;
+
+		/**
+		 * The layout of some columns about to be written at offset.
+		 */
+		Layout(Columns c, long offset) {
+			version = VERSION;
+			seed = c.seed;
+			this.offset = offset;
+			n = c.x.length;
+			m = c.source.length;
+			e = c.type.length;
+			notes = c.pitch.length;
+			refs = c.eventRefs.length;
+			q = c.metaNode.length;
+			memberCount = c.members.length;
+			metaEdgeCount = c.metaEdges.length;
+			tileSize = c.tileSize;
+			tiles = c.tileKey.length;
+			tiled = c.tileNodes.length;
+			primeCount = c.primes.length;
+			nextSerial = c.nextSerial;
+			lay();
+		}
+
+		/**
+		 * Read a layer's header. buf must be positioned at it, and is left
+		 * just past it.
+		 *
+		 * @param fileSize - How long the whole file is
+		 */
+		Layout(ByteBuffer buf, int version, long fileSize) throws IOException {
+			this.version = version;
+			seed = buf.getLong();
+			offset = buf.getLong();
+			n = buf.getInt();
+			m = buf.getInt();
+			e = buf.getInt();
+			notes = buf.getInt();
+			refs = buf.getInt();
+			q = buf.getInt();
+			memberCount = buf.getInt();
+			metaEdgeCount = buf.getInt();
+			if (version >= 2) {
+				tileSize = buf.getInt();
+				tiles = buf.getInt();
+				tiled = buf.getInt();
+				primeCount = buf.getInt();
+			}
+			nextSerial = (version >= 3? buf.getInt() : n);
+
+			if (n < 0 || m < 0 || e < 0 || notes < 0 || refs < 0 || q < 0 || memberCount < 0 || metaEdgeCount < 0 ||
+					tiles < 0 || tiled < 0 || primeCount < 0 || nextSerial < 0 || (version >= 2 && tileSize <= 0))
+				throw new IOException("Score file is damaged");
+
+			lay();
+			if (offset < 0 || offset + size > fileSize)
+				throw new IOException("Score file is damaged");
+		}
+
+		/**
+		 * Write the header.
+		 */
+		void put(ByteBuffer buf) {
+			buf.putLong(seed);
+			buf.putLong(offset);
+			buf.putInt(n);
+			buf.putInt(m);
+			buf.putInt(e);
+			buf.putInt(notes);
+			buf.putInt(refs);
+			buf.putInt(q);
+			buf.putInt(memberCount);
+			buf.putInt(metaEdgeCount);
+			buf.putInt(tileSize);
+			buf.putInt(tiles);
+			buf.putInt(tiled);
+			buf.putInt(primeCount);
+			buf.putInt(nextSerial);
+		}
+
+		/**
+		 * Work out where each column goes, in the order they are stored.
+		 */
+		private void lay() {
+			size = 0;
+			x = column(n, 4);
+			y = column(n, 4);
+			nodeFlags = column(n, 4);
+			metaID = column(n, 4);
+			if (version >= 3)
+				serial = column(n, 4);
+			eventStart = column(n + 1L, 4);
+			eventRefs = column(refs, 4);
+
+			type = column(e, 4);
+			noteStart = column(e + 1L, 4);
+			eventLikelihood = column(e, 8);
+
+			pitch = column(notes, 4);
+			velocity = column(notes, 4);
+
+			source = column(m, 4);
+			destination = column(m, 4);
+			edgeFlags = column(m, 4);
+			edgeLikelihood = column(m, 8);
+
+			metaNode = column(q, 4);
+			memberStart = column(q + 1L, 4);
+			members = column(memberCount, 4);
+			metaEdgeStart = column(q + 1L, 4);
+			metaEdges = column(metaEdgeCount, 4);
+
+			if (version >= 2) {
+				tileKey = column(tiles, 8);
+				tileStart = column(tiles + 1L, 4);
+				tileNodes = column(tiled, 4);
+				incidentStart = column(n + 1L, 4);
+				incident = column(2L*m, 4);
+				metaOf = column(n, 4);
+				primes = column(primeCount, 4);
+			}
+		}
+
+		private long column(long count, int width) {
+			long at = size;
+			size += count * width;
+			return at;
+		}
+	}
+
+	/**
+	 * One layer, as columns.
+	 */
+	private static class Columns {
+
+		long seed;
+		int nextSerial;
+
+		// Nodes
+		int[] x, y, nodeFlags, metaID, serial, eventStart, eventRefs;	// serial is null for files from before format 3
+		// Events
+		int[] type, noteStart;
+		double[] eventLikelihood;
+		// Notes
+		int[] pitch, velocity;
+		// Edges
+		int[] source, destination, edgeFlags;
+		double[] edgeLikelihood;
+		// MetaNodes
+		int[] metaNode, memberStart, members, metaEdgeStart, metaEdges;
+		// Index (only when writing)
+		int tileSize;
+		long[] tileKey;
+		int[] tileStart, tileNodes, incidentStart, incident, metaOf, primes;
+
+		/**
+		 * Lay out a Score as columns.
+		 */
+		Columns(Score s) {
+			seed = s.getSeed();
+
+			// Number every Node and Edge we can find: the Score's own first,
+			// then MetaNodes and their contents, then whatever Edges lead to.
+			ArrayList<Node> nodes = new ArrayList<Node>();
+			IdentityHashMap<Node, Integer> nodeIndex = new IdentityHashMap<Node, Integer>();
+			ArrayList<Edge> edges = new ArrayList<Edge>();
+			IdentityHashMap<Edge, Integer> edgeIndex = new IdentityHashMap<Edge, Integer>();
+
+			for (Node n : s.getNodes())
+				number(n, nodes, nodeIndex);
+			int onScore = nodes.size();
+			for (Edge e : s.getEdges())
+				number(e, edges, edgeIndex, nodes, nodeIndex);
+			int edgesOnScore = edges.size();
+			for (MetaNode m : s.getMetaNodes()) {
+				number(m, nodes, nodeIndex);
+				for (Node n : m.getNodes())
+					number(n, nodes, nodeIndex);
+			}
+			for (int i = 0; i<nodes.size(); i++) {
+				Node n = nodes.get(i);
+				for (Edge e : n.getEdges())
+					number(e, edges, edgeIndex, nodes, nodeIndex);
+				if (n instanceof MetaNode)
+					for (Edge e : ((MetaNode)n).getEdges())
+						number(e, edges, edgeIndex, nodes, nodeIndex);
+			}
+
+			// Nodes, and the event dictionary
+			int n = nodes.size();
+			x = new int[n];
+			y = new int[n];
+			nodeFlags = new int[n];
+			metaID = new int[n];
+			serial = new int[n];
+
+			ArrayList<ArrayList<NodeEvent>> lists = new ArrayList<ArrayList<NodeEvent>>(n);
+			ArrayList<MetaNode> metas = new ArrayList<MetaNode>();
+			for (int i = 0; i<n; i++) {
+				Node node = nodes.get(i);
+				x[i] = node.getX();
+				y[i] = node.getY();
+				serial[i] = s.serialOf(node);
+				nodeFlags[i] = (node.isPrimeNode()? NODE_PRIME : 0) |
+					(node.isLegato()? NODE_LEGATO : 0) |
+					(i < onScore? NODE_ON_SCORE : 0);
+				if (node instanceof MetaNode) {
+					nodeFlags[i] |= NODE_META;
+					metaID[i] = ((MetaNode)node).getMetaID();
+					metas.add((MetaNode)node);
+				}
+				lists.add(node.getEventList());
+			}
+			events(lists);
+
+			// Edges
+			int m = edges.size();
+			source = new int[m];
+			destination = new int[m];
+			edgeFlags = new int[m];
+			edgeLikelihood = new double[m];
+			for (int i = 0; i<m; i++) {
+				Edge ed = edges.get(i);
+				source[i] = nodeIndex.get(ed.getSource());
+				destination[i] = nodeIndex.get(ed.getDestination());
+				edgeFlags[i] = (i < edgesOnScore? EDGE_ON_SCORE : 0);
+				edgeLikelihood[i] = ed.getLikelihood();
+			}
+
+			// MetaNodes: what's inside each one
+			int q = metas.size();
+			metaNode = new int[q];
+			memberStart = new int[q + 1];
+			metaEdgeStart = new int[q + 1];
+			int memberCount = 0, metaEdgeCount = 0;
+			for (int i = 0; i<q; i++) {
+				memberStart[i] = memberCount;
+				metaEdgeStart[i] = metaEdgeCount;
+				memberCount += metas.get(i).getNodes().size();
+				metaEdgeCount += metas.get(i).getEdges().size();
+			}
+			memberStart[q] = memberCount;
+			metaEdgeStart[q] = metaEdgeCount;
+			members = new int[memberCount];
+			metaEdges = new int[metaEdgeCount];
+			for (int i = 0; i<q; i++) {
+				MetaNode meta = metas.get(i);
+				metaNode[i] = nodeIndex.get(meta);
+				for (int k = 0; k<meta.getNodes().size(); k++)
+					members[memberStart[i] + k] = nodeIndex.get(meta.getNodes().get(k));
+				for (int k = 0; k<meta.getEdges().size(); k++)
+					metaEdges[metaEdgeStart[i] + k] = edgeIndex.get(meta.getEdges().get(k));
+			}
+			nextSerial = s.getNextSerial();
+
+			// Which MetaNode each Node is in, then the index
+			IdentityHashMap<MetaNode, Integer> metaIndex = new IdentityHashMap<MetaNode, Integer>();
+			for (int i = 0; i<q; i++)
+				metaIndex.put(metas.get(i), i);
+			metaOf = new int[n];
+			for (int i = 0; i<n; i++) {
+				Integer mi = metaIndex.get(nodes.get(i).getMetaNode());
+				metaOf[i] = (null == mi? -1 : mi);
+			}
+			index(onScore);
+		}
+
+		/**
+		 * Lay out a score kept as plain data as columns, numbered the way
+		 * Columns(Score) numbers a Score's.
+		 */
+		Columns(ScoreImage s) {
+			seed = s.seed;
+			nextSerial = s.nextSerial;
+
+			ArrayList<ScoreImage.Item> nodes = new ArrayList<ScoreImage.Item>();
+			IdentityHashMap<ScoreImage.Item, Integer> nodeIndex = new IdentityHashMap<ScoreImage.Item, Integer>();
+			ArrayList<ScoreImage.Link> edges = new ArrayList<ScoreImage.Link>();
+			IdentityHashMap<ScoreImage.Link, Integer> edgeIndex = new IdentityHashMap<ScoreImage.Link, Integer>();
+
+			for (ScoreImage.Item it : s.nodes)
+				number(it, nodes, nodeIndex);
+			int onScore = nodes.size();
+			for (ScoreImage.Link l : s.edges.values())
+				number(l, edges, edgeIndex, nodes, nodeIndex);
+			int edgesOnScore = edges.size();
+			for (ScoreImage.Item m : s.metaNodes) {
+				number(m, nodes, nodeIndex);
+				for (ScoreImage.Item it : m.members)
+					number(it, nodes, nodeIndex);
+			}
+			for (int i = 0; i<nodes.size(); i++) {
+				ScoreImage.Item it = nodes.get(i);
+				for (ScoreImage.Link l : it.edges)
+					number(l, edges, edgeIndex, nodes, nodeIndex);
+				if (it.isMeta())
+					for (ScoreImage.Link l : it.metaEdges)
+						number(l, edges, edgeIndex, nodes, nodeIndex);
+			}
+
+			// Nodes, and the event dictionary
+			int n = nodes.size();
+			x = new int[n];
+			y = new int[n];
+			nodeFlags = new int[n];
+			metaID = new int[n];
+			serial = new int[n];
+
+			ArrayList<ArrayList<NodeEvent>> lists = new ArrayList<ArrayList<NodeEvent>>(n);
+			ArrayList<ScoreImage.Item> metas = new ArrayList<ScoreImage.Item>();
+			for (int i = 0; i<n; i++) {
+				ScoreImage.Item it = nodes.get(i);
+				x[i] = it.x;
+				y[i] = it.y;
+				serial[i] = it.serial;
+				nodeFlags[i] = it.flags | (i < onScore? NODE_ON_SCORE : 0);
+				if (it.isMeta()) {
+					metaID[i] = it.metaID;
+					metas.add(it);
+				}
+				lists.add(it.events);
+			}
+			events(lists);
+
+			// Edges
+			int m = edges.size();
+			source = new int[m];
+			destination = new int[m];
+			edgeFlags = new int[m];
+			edgeLikelihood = new double[m];
+			for (int i = 0; i<m; i++) {
+				ScoreImage.Link l = edges.get(i);
+				source[i] = nodeIndex.get(l.source);
+				destination[i] = nodeIndex.get(l.destination);
+				edgeFlags[i] = (i < edgesOnScore? EDGE_ON_SCORE : 0);
+				edgeLikelihood[i] = l.likelihood;
+			}
+
+			// MetaNodes: what's inside each one
+			int q = metas.size();
+			metaNode = new int[q];
+			memberStart = new int[q + 1];
+			metaEdgeStart = new int[q + 1];
+			int memberCount = 0, metaEdgeCount = 0;
+			for (int i = 0; i<q; i++) {
+				memberStart[i] = memberCount;
+				metaEdgeStart[i] = metaEdgeCount;
+				memberCount += metas.get(i).members.size();
+				metaEdgeCount += metas.get(i).metaEdges.size();
+			}
+			memberStart[q] = memberCount;
+			metaEdgeStart[q] = metaEdgeCount;
+			members = new int[memberCount];
+			metaEdges = new int[metaEdgeCount];
+			for (int i = 0; i<q; i++) {
+				ScoreImage.Item meta = metas.get(i);
+				metaNode[i] = nodeIndex.get(meta);
+				for (int k = 0; k<meta.members.size(); k++)
+					members[memberStart[i] + k] = nodeIndex.get(meta.members.get(k));
+				for (int k = 0; k<meta.metaEdges.size(); k++)
+					metaEdges[metaEdgeStart[i] + k] = edgeIndex.get(meta.metaEdges.get(k));
+			}
+
+			// Which MetaNode each Node is in, then the index
+			IdentityHashMap<ScoreImage.Item, Integer> metaIndex = new IdentityHashMap<ScoreImage.Item, Integer>();
+			for (int i = 0; i<q; i++)
+				metaIndex.put(metas.get(i), i);
+			metaOf = new int[n];
+			for (int i = 0; i<n; i++) {
+				Integer mi = metaIndex.get(nodes.get(i).meta);
+				metaOf[i] = (null == mi? -1 : mi);
+			}
+			index(onScore);
+		}
+
+		/**
+		 * Read a layer's columns (but not its index), wherever l says they are.
+		 */
+		Columns(ByteBuffer buf, Layout l) {
+			seed = l.seed;
+			nextSerial = l.nextSerial;
+			int n = l.n, m = l.m, e = l.e, notes = l.notes;
+			int refs = l.refs, q = l.q, memberCount = l.memberCount, metaEdgeCount = l.metaEdgeCount;
+
+			buf.position((int)l.offset);
+			x = getInts(buf, n);
+			y = getInts(buf, n);
+			nodeFlags = getInts(buf, n);
+			metaID = getInts(buf, n);
+			serial = (l.version >= 3? getInts(buf, n) : null);
+			eventStart = getInts(buf, n + 1);
+			eventRefs = getInts(buf, refs);
+
+			type = getInts(buf, e);
+			noteStart = getInts(buf, e + 1);
+			eventLikelihood = getDoubles(buf, e);
+
+			pitch = getInts(buf, notes);
+			velocity = getInts(buf, notes);
+
+			source = getInts(buf, m);
+			destination = getInts(buf, m);
+			edgeFlags = getInts(buf, m);
+			edgeLikelihood = getDoubles(buf, m);
+
+			metaNode = getInts(buf, q);
+			memberStart = getInts(buf, q + 1);
+			members = getInts(buf, memberCount);
+			metaEdgeStart = getInts(buf, q + 1);
+			metaEdges = getInts(buf, metaEdgeCount);
+		}
+
+		/**
+		 * Make a Score out of the columns.
+		 */
+		Score build(GenSeq parent) throws IOException {
+			try {
+				// The event dictionary first, so Nodes can share its events
+				NodeEvent[] events = dictionary();
+
+				Node[] nodes = new Node[x.length];
+				ArrayList<Node> onScore = new ArrayList<Node>();
+				for (int i = 0; i<nodes.length; i++) {
+					Node node = ((nodeFlags[i] & NODE_META) != 0?
+							new MetaNode(parent, metaID[i], x[i], y[i]) :
+							new Node(parent, x[i], y[i]));
+
+					ArrayList<NodeEvent> list = new ArrayList<NodeEvent>(eventStart[i + 1] - eventStart[i]);
+					for (int k = eventStart[i]; k<eventStart[i + 1]; k++)
+						list.add(events[eventRefs[k]]);
+					node.setEventList(list);
+					node.setPrime((nodeFlags[i] & NODE_PRIME) != 0);
+					node.setLegato((nodeFlags[i] & NODE_LEGATO) != 0);
+					node.setSerial(null == serial? i : serial[i]);
+
+					nodes[i] = node;
+					if ((nodeFlags[i] & NODE_ON_SCORE) != 0)
+						onScore.add(node);
+				}
+
+				Edge[] edges = new Edge[source.length];
+				ArrayList<Edge> edgesOnScore = new ArrayList<Edge>();
+				for (int i = 0; i<edges.length; i++) {
+					Node s = nodes[source[i]], d = nodes[destination[i]];
+					Edge ed = new Edge(parent, s, d);
+					if (ed.getLikelihood() != edgeLikelihood[i])
+						ed.setLikelihood(edgeLikelihood[i]);
+					s.registerEdge(ed);
+					d.registerEdge(ed);
+
+					edges[i] = ed;
+					if ((edgeFlags[i] & EDGE_ON_SCORE) != 0)
+						edgesOnScore.add(ed);
+				}
+
+				ArrayList<MetaNode> metas = new ArrayList<MetaNode>(metaNode.length);
+				for (int i = 0; i<metaNode.length; i++) {
+					MetaNode meta = (MetaNode)nodes[metaNode[i]];
+					ArrayList<Node> contents = new ArrayList<Node>(memberStart[i + 1] - memberStart[i]);
+					for (int k = memberStart[i]; k<memberStart[i + 1]; k++)
+						contents.add(nodes[members[k]]);
+					meta.encapsulate(contents);
+					for (int k = metaEdgeStart[i]; k<metaEdgeStart[i + 1]; k++)
+						meta.getEdges().add(edges[metaEdges[k]]);
+					metas.add(meta);
+				}
+
+				Score score = new Score(parent);
+				score.setSeed(seed);
+				score.setNextSerial(nextSerial);
+				score.addNodes(onScore);
+				score.addEdges(edgesOnScore);
+				score.addMetaNodes(metas);
+				score.publish();
+				return score;
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException("Score file is damaged");
+			} catch (ClassCastException e) {
+				throw new IOException("Score file is damaged");
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Score file is damaged");
+			}
+		}
+
+		/**
+		 * Make a ScoreImage out of the columns.
+		 */
+		ScoreImage image() throws IOException {
+			try {
+				NodeEvent[] events = dictionary();
+
+				ScoreImage s = new ScoreImage(seed);
+				ScoreImage.Item[] items = new ScoreImage.Item[x.length];
+				for (int i = 0; i<items.length; i++) {
+					ScoreImage.Item it = s.item(null == serial? i : serial[i]);
+					it.x = x[i];
+					it.y = y[i];
+					it.flags = nodeFlags[i] & (NODE_PRIME | NODE_LEGATO | NODE_META);
+					it.metaID = metaID[i];
+					it.events = new ArrayList<NodeEvent>(eventStart[i + 1] - eventStart[i]);
+					for (int k = eventStart[i]; k<eventStart[i + 1]; k++)
+						it.events.add(events[eventRefs[k]]);
+					if (it.isMeta()) {
+						it.members = new ArrayList<ScoreImage.Item>();
+						it.metaEdges = new ArrayList<ScoreImage.Link>();
+					}
+
+					items[i] = it;
+					if ((nodeFlags[i] & NODE_ON_SCORE) != 0)
+						s.nodes.add(it);
+				}
+
+				ScoreImage.Link[] links = new ScoreImage.Link[source.length];
+				for (int i = 0; i<links.length; i++) {
+					ScoreImage.Item from = items[source[i]], to = items[destination[i]];
+					links[i] = ScoreImage.link(from, to, edgeLikelihood[i]);
+					if ((edgeFlags[i] & EDGE_ON_SCORE) != 0)
+						s.edges.put(ScoreImage.key(from, to), links[i]);
+				}
+
+				for (int i = 0; i<metaNode.length; i++) {
+					ScoreImage.Item meta = items[metaNode[i]];
+					if (! meta.isMeta())
+						throw new IOException("Score file is damaged");
+					for (int k = memberStart[i]; k<memberStart[i + 1]; k++) {
+						items[members[k]].meta = meta;
+						meta.members.add(items[members[k]]);
+					}
+					for (int k = metaEdgeStart[i]; k<metaEdgeStart[i + 1]; k++)
+						meta.metaEdges.add(links[metaEdges[k]]);
+					s.metaNodes.add(meta);
+				}
+
+				s.nextSerial = Math.max(s.nextSerial, nextSerial);
+				return s;
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException("Score file is damaged");
+			}
+		}
+
+		void put(ByteBuffer buf) {
+			putInts(buf, x);
+			putInts(buf, y);
+			putInts(buf, nodeFlags);
+			putInts(buf, metaID);
+			putInts(buf, serial);
+			putInts(buf, eventStart);
+			putInts(buf, eventRefs);
+
+			putInts(buf, type);
+			putInts(buf, noteStart);
+			putDoubles(buf, eventLikelihood);
+
+			putInts(buf, pitch);
+			putInts(buf, velocity);
+
+			putInts(buf, source);
+			putInts(buf, destination);
+			putInts(buf, edgeFlags);
+			putDoubles(buf, edgeLikelihood);
+
+			putInts(buf, metaNode);
+			putInts(buf, memberStart);
+			putInts(buf, members);
+			putInts(buf, metaEdgeStart);
+			putInts(buf, metaEdges);
+
+			putLongs(buf, tileKey);
+			putInts(buf, tileStart);
+			putInts(buf, tileNodes);
+			putInts(buf, incidentStart);
+			putInts(buf, incident);
+			putInts(buf, metaOf);
+			putInts(buf, primes);
+		}
+
+		/**
+		 * events(List<ArrayList<NodeEvent>> lists) - Fill in the event columns:
+		 * which events each Node has (lists, one per Node, in order), and the
+		 * dictionary of them. Each event is stored once, however many Nodes
+		 * share it.
+		 */
+		private void events(List<ArrayList<NodeEvent>> lists) {
+			int n = lists.size();
+			eventStart = new int[n + 1];
+			int refs = 0;
+			for (int i = 0; i<n; i++) {
+				eventStart[i] = refs;
+				refs += lists.get(i).size();
+			}
+			eventStart[n] = refs;
+			eventRefs = new int[refs];
+
+			ArrayList<NodeEvent> events = new ArrayList<NodeEvent>();
+			IdentityHashMap<NodeEvent, Integer> eventIndex = new IdentityHashMap<NodeEvent, Integer>();
+			for (int i = 0; i<n; i++) {
+				ArrayList<NodeEvent> list = lists.get(i);
+				for (int k = 0; k<list.size(); k++) {
+					NodeEvent ev = list.get(k);
+					Integer ei = eventIndex.get(ev);
+					if (null == ei) {
+						ei = events.size();
+						eventIndex.put(ev, ei);
+						events.add(ev);
+					}
+					eventRefs[eventStart[i] + k] = ei;
+				}
+			}
+
+			// Events and their notes
+			int e = events.size();
+			type = new int[e];
+			noteStart = new int[e + 1];
+			eventLikelihood = new double[e];
+			int notes = 0;
+			for (int i = 0; i<e; i++) {
+				noteStart[i] = notes;
+				notes += events.get(i).getNotes().size();
+			}
+			noteStart[e] = notes;
+			pitch = new int[notes];
+			velocity = new int[notes];
+			for (int i = 0; i<e; i++) {
+				NodeEvent ev = events.get(i);
+				type[i] = ev.getType();
+				eventLikelihood[i] = ev.getLikelihood();
+				ArrayList<Note> list = ev.getNotes();
+				for (int k = 0; k<list.size(); k++) {
+					pitch[noteStart[i] + k] = list.get(k).getPitch();
+					velocity[noteStart[i] + k] = list.get(k).getVelocity();
+				}
+			}
+		}
+
+		/**
+		 * index(int onScore) - Fill in the index, once everything else (and
+		 * metaOf) is. The first onScore Nodes are the Score's own.
+		 */
+		private void index(int onScore) {
+			int n = x.length, m = source.length;
+
+			// The Score's own Nodes, bucketed into tiles
+			tileSize = TILE_SIZE;
+			long[] keys = new long[onScore];
+			for (int i = 0; i<onScore; i++)
+				keys[i] = tileKey(tileOf(x[i], tileSize), tileOf(y[i], tileSize));
+			long[] sorted = keys.clone();
+			Arrays.sort(sorted);
+			int tiles = 0;
+			for (int i = 0; i<sorted.length; i++)
+				if (0 == i || sorted[i] != sorted[i - 1])
+					sorted[tiles++] = sorted[i];
+			tileKey = Arrays.copyOf(sorted, tiles);
+
+			int[] tile = new int[onScore];
+			tileStart = new int[tiles + 1];
+			for (int i = 0; i<onScore; i++) {
+				tile[i] = Arrays.binarySearch(tileKey, keys[i]);
+				tileStart[tile[i] + 1]++;
+			}
+			for (int i = 0; i<tiles; i++)
+				tileStart[i + 1] += tileStart[i];
+			tileNodes = new int[onScore];
+			int[] fill = Arrays.copyOf(tileStart, tiles);
+			for (int i = 0; i<onScore; i++)
+				tileNodes[fill[tile[i]]++] = i;
+
+			// ...the Edges touching each Node...
+			incidentStart = new int[n + 1];
+			for (int i = 0; i<m; i++) {
+				incidentStart[source[i] + 1]++;
+				incidentStart[destination[i] + 1]++;
+			}
+			for (int i = 0; i<n; i++)
+				incidentStart[i + 1] += incidentStart[i];
+			incident = new int[2*m];
+			fill = Arrays.copyOf(incidentStart, n);
+			for (int i = 0; i<m; i++) {
+				incident[fill[source[i]]++] = i;
+				incident[fill[destination[i]]++] = i;
+			}
+
+			// ...and where playback begins
+			int primeCount = 0;
+			for (int i = 0; i<onScore; i++)
+				if ((nodeFlags[i] & NODE_PRIME) != 0)
+					primeCount++;
+			primes = new int[primeCount];
+			for (int i = 0, p = 0; i<onScore; i++)
+				if ((nodeFlags[i] & NODE_PRIME) != 0)
+					primes[p++] = i;
+		}
+
+		/**
+		 * dictionary() - Make the events in the columns, in order.
+		 */
+		private NodeEvent[] dictionary() {
+			NodeEvent[] events = new NodeEvent[type.length];
+			for (int i = 0; i<events.length; i++) {
+				ArrayList<Note> notes = new ArrayList<Note>(noteStart[i + 1] - noteStart[i]);
+				for (int k = noteStart[i]; k<noteStart[i + 1]; k++)
+					notes.add(new Note(pitch[k], velocity[k]));
+
+				if (NodeEvent.TYPE_CHORD == type[i] || notes.size() != 1)
+					events[i] = new NodeEvent(notes, eventLikelihood[i]);
+				else
+					events[i] = new NodeEvent(notes.get(0), eventLikelihood[i]);
+			}
+
+			return events;
+		}
+
+		private static <T> void number(T n, ArrayList<T> nodes, IdentityHashMap<T, Integer> index) {
+			if (index.containsKey(n)) return;
+
+			index.put(n, nodes.size());
+			nodes.add(n);
+		}
+
+		private static void number(Edge e, ArrayList<Edge> edges, IdentityHashMap<Edge, Integer> index,
+				ArrayList<Node> nodes, IdentityHashMap<Node, Integer> nodeIndex) {
+			if (index.containsKey(e)) return;
+
+			index.put(e, edges.size());
+			edges.add(e);
+			number(e.getSource(), nodes, nodeIndex);
+			number(e.getDestination(), nodes, nodeIndex);
+		}
+
+		private static void number(ScoreImage.Link l, ArrayList<ScoreImage.Link> edges, IdentityHashMap<ScoreImage.Link, Integer> index,
+				ArrayList<ScoreImage.Item> nodes, IdentityHashMap<ScoreImage.Item, Integer> nodeIndex) {
+			if (index.containsKey(l)) return;
+
+			index.put(l, edges.size());
+			edges.add(l);
+			number(l.source, nodes, nodeIndex);
+			number(l.destination, nodes, nodeIndex);
+		}
+	}
+}
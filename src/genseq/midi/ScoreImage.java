@@ -0,0 +1,273 @@
+/**
+ * ScoreImage.java
+ *
+ * A Score as plain data: what a ScoreFile holds for one layer, with
+ * Nodes known by serial (see Node.getSerial()) and Edges by the serials
+ * of their ends. The edit journal replays its records onto these (see
+ * EditJournal), so compacting the journal on its own thread never makes
+ * a Node, Edge, MetaNode or Score; those are only made from an image on
+ * the GUI thread, by ScoreFile.build().
+ *
+ * Each edit does to the image what the same edit does to a Score, as far
+ * as anything that's saved goes: e.g. removeNodes() takes the Score's own
+ * Edges joined to the Nodes with them, as Score.removeNodes() does.
+ * Events are shared, and never changed, as they are on Nodes.
+ *
+ * Not thread-safe.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.NodeEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+class ScoreImage {
+
+	long seed;
+	int nextSerial;
+	final HashMap<Integer, Item> serials;		// Every Node we know of, on the score or not
+	final LinkedHashSet<Item> nodes;		// The Score's own Nodes, in the order they went on
+	final LinkedHashMap<Long, Link> edges;		// The Score's own Edges, by key()
+	final LinkedHashSet<Item> metaNodes;		// The Score's MetaNodes, in the order they went on
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param seed - The Score's master seed for playback
+	 */
+	ScoreImage(long seed) {
+		this.seed = seed;
+		nextSerial = 0;
+		serials = new HashMap<Integer, Item>();
+		nodes = new LinkedHashSet<Item>();
+		edges = new LinkedHashMap<Long, Link>();
+		metaNodes = new LinkedHashSet<Item>();
+	}
+
+	/**
+	 * item(int serial)
+	 *
+	 * @return The Node with that serial, made (with nothing in it, and not
+	 * on the score) if there isn't one yet.
+	 */
+	Item item(int serial) {
+		Item it = serials.get(serial);
+		if (null == it) {
+			it = new Item(serial);
+			serials.put(serial, it);
+			if (serial >= nextSerial)
+				nextSerial = serial + 1;
+		}
+
+		return it;
+	}
+
+	/**
+	 * key(Item source, Item destination)
+	 *
+	 * @return What an Edge between the two is filed under in edges.
+	 */
+	static long key(Item source, Item destination) {
+		return ((long)source.serial << 32) | (destination.serial & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * link(Item source, Item destination, double likelihood)
+	 *
+	 * Make an Edge and register it with its ends, as Node.registerEdge()
+	 * does. It isn't put on the score.
+	 */
+	static Link link(Item source, Item destination, double likelihood) {
+		Link l = new Link(source, destination, likelihood);
+		source.edges.add(l);
+		destination.edges.add(l);
+		return l;
+	}
+
+
+	/*** EDITS (see EditJournal) ***/
+
+	/**
+	 * addNode(...) - Put a Node on the score, or back on it, as it is now.
+	 */
+	void addNode(int serial, int x, int y, int flags, ArrayList<NodeEvent> events) {
+		Item it = item(serial);
+		it.x = x;
+		it.y = y;
+		it.setAttributes(flags, events);
+		nodes.add(it);
+	}
+
+	/**
+	 * removeNodes(int[] serials) - Take some Nodes off the score, and the
+	 * score's Edges joined to them.
+	 */
+	void removeNodes(int[] serials) {
+		for (int serial : serials) {
+			Item it = this.serials.get(serial);
+			if (null == it || ! nodes.remove(it))
+				continue;
+
+			unlink(new ArrayList<Link>(it.edges));
+		}
+	}
+
+	void moveNodes(int[] serials, int dx, int dy) {
+		for (int serial : serials) {
+			Item it = this.serials.get(serial);
+			if (null != it) {
+				it.x += dx;
+				it.y += dy;
+			}
+		}
+	}
+
+	void editNode(int serial, int flags, ArrayList<NodeEvent> events) {
+		Item it = serials.get(serial);
+		if (null != it)
+			it.setAttributes(flags, events);
+	}
+
+	/**
+	 * addEdge(...) - Put an Edge on the score, unless its ends are unknown
+	 * or there already is one between them.
+	 */
+	void addEdge(int source, int destination, double likelihood) {
+		Item from = serials.get(source), to = serials.get(destination);
+		if (null == from || null == to || edges.containsKey(key(from, to)))
+			return;
+
+		edges.put(key(from, to), link(from, to, likelihood));
+	}
+
+	void removeEdge(int source, int destination) {
+		Item from = serials.get(source), to = serials.get(destination);
+		if (null == from || null == to)
+			return;
+
+		Link l = edges.get(key(from, to));
+		if (null != l)
+			unlink(Collections.singletonList(l));
+	}
+
+	/**
+	 * addMetaNode(...) - Put a MetaNode on the score, holding the members
+	 * we know of (see Score.encapsulateNodes()).
+	 */
+	void addMetaNode(int serial, int metaID, int x, int y, int flags, ArrayList<NodeEvent> events, int[] members) {
+		Item m = item(serial);
+		m.x = x;
+		m.y = y;
+		m.setAttributes(flags | ScoreFile.NODE_META, events);
+		m.metaID = metaID;
+		m.members = new ArrayList<Item>(members.length);
+		if (null == m.metaEdges)
+			m.metaEdges = new ArrayList<Link>();
+		for (int member : members) {
+			Item it = serials.get(member);
+			if (null != it) {
+				it.meta = m;
+				m.members.add(it);
+			}
+		}
+		metaNodes.add(m);
+	}
+
+	/**
+	 * removeMetaNode(int serial) - Take a MetaNode off the score, with the
+	 * score's Edges joined to it, and let go of its members (see
+	 * Score.removeMetaNode()).
+	 */
+	void removeMetaNode(int serial) {
+		Item m = serials.get(serial);
+		if (null == m || ! metaNodes.remove(m))
+			return;
+
+		unlink(new ArrayList<Link>(m.edges));
+		for (Item it : m.members)
+			if (m == it.meta)
+				it.meta = null;
+		m.members.clear();
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	/**
+	 * unlink(List<Link> links) - Take whichever of these are on the score
+	 * off it, and unregister them from their ends.
+	 */
+	private void unlink(List<Link> links) {
+		for (Link l : links) {
+			long k = key(l.source, l.destination);
+			if (edges.get(k) != l)
+				continue;
+
+			edges.remove(k);
+			l.source.edges.remove(l);
+			l.destination.edges.remove(l);
+		}
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * Item - A Node (or MetaNode).
+	 */
+	static class Item {
+
+		final int serial;
+		int x, y;
+		int flags;				// NODE_PRIME, NODE_LEGATO and NODE_META (see ScoreFile)
+		int metaID;
+		ArrayList<NodeEvent> events;
+		Item meta;				// The MetaNode it's inside, if any
+		final ArrayList<Link> edges;		// Registered with it (see Node.registerEdge())
+		ArrayList<Item> members;		// MetaNodes only: what's inside
+		ArrayList<Link> metaEdges;		// MetaNodes only (see MetaNode.getEdges())
+
+		Item(int serial) {
+			this.serial = serial;
+			events = new ArrayList<NodeEvent>();
+			edges = new ArrayList<Link>();
+		}
+
+		boolean isMeta() {
+			return (flags & ScoreFile.NODE_META) != 0;
+		}
+
+		private void setAttributes(int flags, ArrayList<NodeEvent> events) {
+			this.flags = (this.flags & ScoreFile.NODE_META) | flags;
+			this.events = events;
+		}
+
+	}
+
+	/**
+	 * Link - An Edge.
+	 */
+	static class Link {
+
+		final Item source, destination;
+		final double likelihood;
+
+		Link(Item source, Item destination, double likelihood) {
+			this.source = source;
+			this.destination = destination;
+			this.likelihood = likelihood;
+		}
+
+	}
+
+}
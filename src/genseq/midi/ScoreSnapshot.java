@@ -0,0 +1,332 @@
+/**
+ * ScoreSnapshot.java
+ *
+ * An immutable, compiled copy of a Score's graph, made for playback.
+ * Nodes are numbered 0..n-1, and everything a ScoreTraverser needs is
+ * laid out in flat arrays indexed by node number:
+ *
+ * 	- outgoing edges in CSR form: the edges out of node i occupy slots
+ * 	  outStart[i] .. outStart[i+1]-1 of outTarget[] (destination node)
+ * 	  and outTicks[] (how long the edge takes, in clock ticks);
+ * 	- a likelihood table for the node's events and for its edges;
+ * 	- the MetaNode containing each node, and the prime nodes inside
+ * 	  each MetaNode (CSR again).
+ *
+ * The Score compiles a new snapshot after every edit and swaps it in
+ * with a single volatile write. Playback never takes a lock and never
+ * sees a half-edited list; it just picks up the newest snapshot between
+ * ticks (see TraverserEngine). The draw loop does the same once per frame:
+ * the snapshot also keeps the Score's own lists of Nodes and Edges, in
+ * drawing order, so that they can be rendered while the GUI edits the
+ * Score's lists, and a spatial index of them so that it only has to look
+ * at what's on screen. The index belongs to the draw loop, which builds it
+ * the first time it asks (see queryScene()).
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+public final class ScoreSnapshot {
+
+	/*** INTERNAL CONTROL ***/
+	private final long version;
+	private final Node[] nodes;
+	private final IdentityHashMap<Node, Integer> index;
+
+	// What the Score draws, in order
+	private final Node[] sceneNodes;
+	private final Edge[] sceneEdges;
+
+	// Where the scene's Nodes and Edges are. Draw thread only; built on first use.
+	private static final int SCENE_CELL_SIZE = 128;
+	private SpatialGrid<Node> sceneNodeGrid;
+	private SpatialGrid<Edge> sceneEdgeGrid;
+
+	// Outgoing edges, CSR
+	private final int[] outStart;
+	private final int[] outTarget;
+	private final long[] outTicks;
+
+	// Likelihood tables. Edge table k-th entry corresponds to slot outStart[i] + k.
+	private final AliasTable<?>[] edgeTables;
+	private final AliasTable<?>[] eventTables;
+
+	// MetaNode structure
+	private final int[] metaOf;			// Index of the MetaNode containing each node, or -1
+	private final int[] primeStart;		// Prime nodes inside MetaNode i: primeList[primeStart[i] .. primeStart[i+1]-1]
+	private final int[] primeList;
+
+	// Where playback begins: every prime node of the Score's own, inside a MetaNode or not
+	private final int[] primes;
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * Compile a snapshot. This must be called from the thread that edits
+	 * the Score, since it reads the Nodes' (mutable) lists.
+	 *
+	 * @param topLevel - The Score's Nodes, in order.
+	 * @param edges - The Score's Edges, in order.
+	 * @param metaNodes - The Score's MetaNodes.
+	 * @param version - A number identifying this snapshot; later snapshots
+	 * should have larger versions.
+	 */
+	public ScoreSnapshot(Collection<Node> topLevel, Collection<Edge> edges, Collection<MetaNode> metaNodes, long version) {
+		this.version = version;
+		sceneNodes = topLevel.toArray(new Node[topLevel.size()]);
+		sceneEdges = edges.toArray(new Edge[edges.size()]);
+
+		// Number every node we can find: the Score's own, MetaNodes and their
+		// contents, and anything those have edges to.
+		ArrayList<Node> all = new ArrayList<Node>();
+		index = new IdentityHashMap<Node, Integer>();
+		for (Node n : topLevel)
+			number(n, all);
+		for (MetaNode m : metaNodes) {
+			number(m, all);
+			for (Node n : m.getNodes())
+				number(n, all);
+		}
+		for (int i = 0; i<all.size(); i++) {
+			for (Edge e : all.get(i).getOutboundEdges())
+				number(e.getDestination(), all);
+		}
+
+		int n = all.size();
+		nodes = all.toArray(new Node[n]);
+		edgeTables = new AliasTable<?>[n];
+		eventTables = new AliasTable<?>[n];
+		metaOf = new int[n];
+
+		// Edges
+		outStart = new int[n + 1];
+		int slots = 0;
+		for (int i = 0; i<n; i++) {
+			AliasTable<Edge> table = nodes[i].getEdgeTable();
+			edgeTables[i] = table;
+			outStart[i] = slots;
+			slots += table.size();
+		}
+		outStart[n] = slots;
+
+		outTarget = new int[slots];
+		outTicks = new long[slots];
+		for (int i = 0; i<n; i++) {
+			AliasTable<?> table = edgeTables[i];
+			for (int k = 0; k<table.size(); k++) {
+				Edge e = (Edge)table.get(k);
+				outTarget[outStart[i] + k] = index.get(e.getDestination());
+				outTicks[outStart[i] + k] = ScoreTraverser.ticksFor(e);
+			}
+		}
+
+		// Events and MetaNode membership
+		int primeCount = 0;
+		for (int i = 0; i<n; i++) {
+			eventTables[i] = nodes[i].getEventTable();
+
+			MetaNode m = nodes[i].getMetaNode();
+			metaOf[i] = (null == m || ! index.containsKey(m)? -1 : index.get(m));
+
+			if (nodes[i].isPrimeNode() && metaOf[i] >= 0)
+				primeCount++;
+		}
+
+		// Prime nodes inside each MetaNode, CSR
+		primeStart = new int[n + 1];
+		primeList = new int[primeCount];
+		for (int i = 0; i<n; i++)
+			if (nodes[i].isPrimeNode() && metaOf[i] >= 0)
+				primeStart[metaOf[i] + 1]++;
+		for (int i = 0; i<n; i++)
+			primeStart[i + 1] += primeStart[i];
+		int[] fill = new int[n];
+		for (int i = 0; i<n; i++) {
+			if (nodes[i].isPrimeNode() && metaOf[i] >= 0) {
+				int m = metaOf[i];
+				primeList[primeStart[m] + fill[m]++] = i;
+			}
+		}
+
+		// The Score's own prime nodes, in its order. (Its own come first.)
+		int topPrimes = 0;
+		for (int i = 0; i<sceneNodes.length; i++)
+			if (nodes[i].isPrimeNode())
+				topPrimes++;
+		primes = new int[topPrimes];
+		int p = 0;
+		for (int i = 0; i<sceneNodes.length; i++)
+			if (nodes[i].isPrimeNode())
+				primes[p++] = i;
+	}
+
+	/**
+	 * empty()
+	 *
+	 * @return A snapshot of a Score with nothing in it.
+	 */
+	public static ScoreSnapshot empty() {
+		return new ScoreSnapshot(new ArrayList<Node>(), new ArrayList<Edge>(), new ArrayList<MetaNode>(), 0);
+	}
+
+	/***********
+	 * ACCESSORS
+	 ***********/
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	public Node getNode(int i) {
+		return nodes[i];
+	}
+
+	/**
+	 * indexOf(Node n)
+	 *
+	 * @param n - A Node
+	 * @return The number of n in this snapshot, or -1 if n isn't in it.
+	 */
+	public int indexOf(Node n) {
+		Integer i = index.get(n);
+		return (null == i? -1 : i);
+	}
+
+	/**
+	 * getSceneNodes()
+	 *
+	 * @return The Score's Nodes, in drawing order. Don't modify the array.
+	 */
+	public Node[] getSceneNodes() {
+		return sceneNodes;
+	}
+
+	/**
+	 * getSceneEdges()
+	 *
+	 * @return The Score's Edges, in drawing order. Don't modify the array.
+	 */
+	public Edge[] getSceneEdges() {
+		return sceneEdges;
+	}
+
+	/**
+	 * queryScene(int x1, int y1, int x2, int y2, ArrayList<Node> nodesFound, ArrayList<Edge> edgesFound)
+	 *
+	 * Find the scene's Nodes (centers) and Edges (bounding boxes) inside a
+	 * rectangle, in no particular order. Only the draw loop may call this:
+	 * the index behind it is built on the first call, from wherever the
+	 * Nodes are at the time, and isn't thread-safe.
+	 *
+	 * @param x1, y1, x2, y2 - Two opposite corners of the rectangle, in score coordinates
+	 * @param nodesFound - Where to put the Nodes (it is not cleared first)
+	 * @param edgesFound - Where to put the Edges (it is not cleared first)
+	 */
+	public void queryScene(int x1, int y1, int x2, int y2, ArrayList<Node> nodesFound, ArrayList<Edge> edgesFound) {
+		if (null == sceneNodeGrid) {
+			SpatialGrid<Node> nodeGrid = new SpatialGrid<Node>(SCENE_CELL_SIZE);
+			for (Node n : sceneNodes)
+				nodeGrid.insert(n, n.getX(), n.getY(), n.getX(), n.getY());
+
+			SpatialGrid<Edge> edgeGrid = new SpatialGrid<Edge>(SCENE_CELL_SIZE);
+			for (Edge e : sceneEdges)
+				edgeGrid.insert(e, e.getSource().getX(), e.getSource().getY(),
+						e.getDestination().getX(), e.getDestination().getY());
+
+			sceneEdgeGrid = edgeGrid;
+			sceneNodeGrid = nodeGrid;
+		}
+
+		sceneNodeGrid.query(x1, y1, x2, y2, nodesFound);
+		sceneEdgeGrid.query(x1, y1, x2, y2, edgesFound);
+	}
+
+	public int getPrimeCount() {
+		return primes.length;
+	}
+
+	/**
+	 * getPrime(int i)
+	 *
+	 * @return The node number of the i-th prime node where playback begins.
+	 */
+	public int getPrime(int i) {
+		return primes[i];
+	}
+
+	/**
+	 * getMetaNode(int node)
+	 *
+	 * @return The node number of the MetaNode containing `node', or -1.
+	 */
+	public int getMetaNode(int node) {
+		return metaOf[node];
+	}
+
+	public int getEdgeTarget(int slot) {
+		return outTarget[slot];
+	}
+
+	public long getEdgeTicks(int slot) {
+		return outTicks[slot];
+	}
+
+	/*******************
+	 * PLAYBACK CHOICES
+	 *******************/
+
+	/**
+	 * chooseEdge(int node, RandomStream rand)
+	 *
+	 * @return The slot of an outbound edge of `node', chosen by likelihood,
+	 * or -1 if the node is a dead end.
+	 */
+	public int chooseEdge(int node, RandomStream rand) {
+		int k = edgeTables[node].sampleIndex(rand);
+		return (k < 0? -1 : outStart[node] + k);
+	}
+
+	/**
+	 * chooseEvent(int node, RandomStream rand)
+	 *
+	 * @return One of `node''s events, chosen by likelihood, or null if it has none.
+	 */
+	public NodeEvent chooseEvent(int node, RandomStream rand) {
+		return (NodeEvent)eventTables[node].sample(rand);
+	}
+
+	/**
+	 * choosePrime(int meta, RandomStream rand)
+	 *
+	 * @return The node number of one of the prime nodes inside MetaNode
+	 * `meta', or -1 if there are none.
+	 */
+	public int choosePrime(int meta, RandomStream rand) {
+		int count = primeStart[meta + 1] - primeStart[meta];
+		if (0 == count) return -1;
+
+		return primeList[primeStart[meta] + rand.nextInt(count)];
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private void number(Node n, ArrayList<Node> all) {
+		if (index.containsKey(n)) return;
+
+		index.put(n, all.size());
+		all.add(n);
+	}
+
+}
@@ -2,8 +2,11 @@
  * ScoreTraverser.java
  * 
  * Traverses a GenSeqScore, starting at a prime node.
- * Each ScoreTraverser runs on its own thread. The operations
- * that a ScoreTraverser performs, in order, are the following:
+ * A ScoreTraverser is not a thread: it is just the state of one walk
+ * through the score, and is stepped by the TraverserEngine on the
+ * playback clock's thread. It walks a ScoreSnapshot (nodes are known by
+ * their number in the snapshot), never the Score's live lists. The
+ * operations that a ScoreTraverser performs, in order, are the following:
  * 
  * 1. Initialize with a reference to a Prime Node n, and a pointer
  * "curr" pointing to n.
@@ -19,17 +22,31 @@
 package genseq.midi;
 
 import genseq.obj.*;
-import java.util.Random;
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
 
-public class ScoreTraverser extends Thread {
+public class ScoreTraverser {
 
 	/*** INTERNAL CONSTANTS ***/
 	private static final int NODE_PLAY = 0;
 	private static final int EDGE_WAIT = 1;
+	private static final int NODE_LEAVE = 2;
+	// How many times a single step may be redirected (into or out of MetaNodes)
+	// before we decide the score is circular and give up.
+	private static final int MAX_REDIRECTS = 64;
 	
 	/*** EXTERNAL REFERENCES ***/
-	private GenSeq parent;
+	// Where everything this traverser plays is sent
+	private Receiver out;
+	
+	// Where the nodes we visit are announced (for the GUI), if anywhere
+	private VisitFeed feed;
+	
+	// Whether the feed took the arrival at each node we're in, innermost
+	// (the current node) in the lowest bit; one bit per MetaNode we're inside.
+	// Only arrivals that got in may be followed by a leave.
+	private long announced;
 	
 	/*** INTERNAL CONTROL ***/
 	private boolean done;
@@ -37,30 +54,53 @@ public class ScoreTraverser extends Thread {
 	// What's our status?
 	private int status;
 	
-	// Current node and edge
-	private Node currn;
-	private Edge curre;
+	// The compiled score we're walking
+	private ScoreSnapshot snap;
+	
+	// Current node, and the node at the end of the edge we're on (snapshot numbers)
+	private int node;
+	private int target;
 	
 	// Last even that played
 	private NodeEvent lastEvent;
 	
-	// How far (in theoretical pixels) this traverser is along an edge
-	private double edgeDist;
+	// The clock tick at which this traverser next has something to do
+	private long wakeup;
+	
+	// Tie-breaker so traversers due on the same tick always run in the same order
+	private int order;
 	
-	// Tool to generate random numbers
-	Random rand;
+	// Device timestamp (us) at which events from the current tick should sound
+	private long timestamp;
 	
-	public ScoreTraverser(GenSeq parent, Node n) {
+	// Tool to generate random numbers. Each traverser has its own stream.
+	private RandomStream rand;
+	
+	/**
+	 * CONSTRUCTOR
+	 * 
+	 * @param snap - The compiled score to walk
+	 * @param node - Number (in snap) of the prime node to start at
+	 * @param rand - This traverser's own random number stream, usually split
+	 * off of the Score's master seed.
+	 */
+	public ScoreTraverser(ScoreSnapshot snap, int node, RandomStream rand) {
 		// Make sure the prime node exists
-		if (null == n) throw new NullPointerException();
+		if (node < 0 || node >= snap.getNodeCount()) throw new IndexOutOfBoundsException();
 		
-		this.parent = parent;
-		this.currn = n;
-		this.curre = null;
+		this.snap = snap;
+		this.node = node;
+		this.target = -1;
+		this.out = null;
+		this.feed = null;
+		announced = 0;
 		
 		lastEvent = null;
+		timestamp = LookaheadScheduler.NO_TIMESTAMP;
+		wakeup = 0;
+		order = 0;
 		
-		rand = new Random();
+		this.rand = rand;
 		
 		// Get ready to play the first (prime) node.
 		done = false;
@@ -68,71 +108,90 @@ public class ScoreTraverser extends Thread {
 	}
 	
 	/**
-	 * run()
+	 * step(long tick, long timestamp)
+	 * 
+	 * The brains of the outfit. Called by the TraverserEngine on the tick
+	 * this traverser asked to be woken up at (see getWakeup()).
 	 * 
-	 * The brains of the outfit.
+	 * @param tick - The current clock tick.
+	 * @param timestamp - Device time (us) at which anything played on this
+	 * tick should sound, or LookaheadScheduler.NO_TIMESTAMP.
 	 */
-	public void run() {
+	public void step(long tick, long timestamp) {
 		if (done) return;
 		
+		this.timestamp = timestamp;
+		
 		// Tasks to perform at the end of an edge
-		if (EDGE_WAIT == status &&
-				null != curre &&
-				edgeDist >= curre.getLength()) {
+		if (EDGE_WAIT == status && tick >= wakeup) {
 
 			// Stop playing the last node
-			try {
-				currn.stop(this);
-			} catch (InvalidMidiDataException e) {
-				System.err.println("Error playing node!");
-				e.printStackTrace();
-			}
+			leave();
 			
 			// Update our current node
-			currn = curre.getDestination();
+			node = target;
 
-			edgeDist = 0.0;
 			status = NODE_PLAY;
 		}
 
-		// Node tasks
-		if (NODE_PLAY == status) {
+		// Node tasks. MetaNodes may move us somewhere else while we're here,
+		// so keep going until we're settled on an edge (or finished).
+		for (int redirects = 0; NODE_PLAY == status || NODE_LEAVE == status; redirects++) {
+			if (redirects > MAX_REDIRECTS) {
+				System.err.println("Traverser stuck going in and out of MetaNodes; stopping it.");
+				leaveAll(snap, node);
+				done = true;
+				return;
+			}
 			
 			/** PERFORM NODE ACTIONS **/
-			try {
-				lastEvent = currn.respond(lastEvent, this);
-			} catch (InvalidMidiDataException e) {
-				System.err.println("Error playing node!");
-				e.printStackTrace();
+			if (NODE_PLAY == status) {
+				int here = node;
+				
+				try {
+					lastEvent = snap.getNode(node).respond(lastEvent, this);
+				} catch (InvalidMidiDataException e) {
+					System.err.println("Error playing node!");
+					e.printStackTrace();
+				}
+				
+				if (null != feed)
+					announced = (announced << 1) | (feed.publish(snap.getNode(here), true)? 1 : 0);
+				
+				// Sent into a MetaNode? Play wherever we ended up.
+				if (here != node)
+					continue;
 			}
 			
 			/** CHOOSE AN EDGE **/
+			
+			// Weighted by each edge's likelihood
+			int slot = snap.chooseEdge(node, rand);
 
 			// Check to see if we are at the end of the circuit
-			if (0 == currn.getOutboundEdges().size()) {
-				done = true;
+			if (slot < 0) {
+				// N.B. The user will have to end the Score with a REST; otherwise, the last
+				// Note will be very short, since it will be stopped immediately after its
+				// containing Node is called to respond().
+				leave();
 				
-				try {
-					// N.B. The user will have to end the Score with a REST; otherwise, the last
-					// Note will be very short, since it will be stopped immediately after its
-					// containing Node is called to respond().
-					currn.stop(this);
-				} catch (InvalidMidiDataException e) {
-					System.err.println("Error playing node!");
-					e.printStackTrace();
+				// Dead ends inside a MetaNode lead back out of the MetaNode, along
+				// one of the MetaNode's own edges.
+				int meta = snap.getMetaNode(node);
+				if (meta < 0) {
+					done = true;
+					return;
 				}
 				
-				return;
+				node = meta;
+				status = NODE_LEAVE;
+				continue;
 			}			
 			
-			// TODO: This will eventually be more complicated, once edges have weighted likelihoods
-			int whichEdge = rand.nextInt(currn.getOutboundEdges().size());
-			curre = currn.getOutboundEdges().get(whichEdge);
-			
 			/** GET READY FOR EDGE TASKS **/
+			target = snap.getEdgeTarget(slot);
 			status = EDGE_WAIT;
-			
-			
+			wakeup = tick + snap.getEdgeTicks(slot);
 		}
 
 		// TODO: Tasks to perform while waiting at an edge
@@ -142,40 +201,202 @@ public class ScoreTraverser extends Thread {
 	}
 	
 	/**
-	 * tick()
+	 * leave() - Stop playing the current node, and say so on the feed.
+	 */
+	private void leave() {
+		try {
+			snap.getNode(node).stop(this);
+		} catch (InvalidMidiDataException e) {
+			System.err.println("Error playing node!");
+			e.printStackTrace();
+		}
+		
+		if (null != feed) {
+			if (0 != (announced & 1))
+				feed.publish(snap.getNode(node), false);
+			announced >>>= 1;
+		}
+	}
+	
+	/**
+	 * leaveAll(ScoreSnapshot s, int at)
 	 * 
-	 * This method gets used by the ScoreTraverserConductor inside of
-	 * GenSeq, in order to run timing operations here.
+	 * Say on the feed that we've left node `at' and every MetaNode it's
+	 * inside (numbered as in s), for a traverser that's stopping without
+	 * leaving them the usual way. Nothing is stopped playing.
+	 */
+	private void leaveAll(ScoreSnapshot s, int at) {
+		if (null != feed) {
+			for (int i = at; 0 != announced && i >= 0; i = s.getMetaNode(i)) {
+				if (0 != (announced & 1))
+					feed.publish(s.getNode(i), false);
+				announced >>>= 1;
+			}
+		}
+		announced = 0;
+	}
+	
+	/**
+	 * ticksFor(Edge e)
+	 * 
+	 * Traversers move along edges at GenSeq.TIME_EDGE_RATIO pixels per tick,
+	 * so the time spent on an edge follows straight from its length.
 	 * 
-	 * TODO: Currently, the tick() method assumes all edges use linear
-	 * interpolation for all CC/SYSEX events. Add in other funcs as well.
+	 * TODO: Currently, this assumes all edges use linear interpolation
+	 * for all CC/SYSEX events. Add in other funcs as well.
 	 * 
+	 * @param e - An edge
+	 * @return The number of ticks it takes to travel the length of e (at least 1).
 	 */
-	public void tick() {
-		if (done) return;
+	public static long ticksFor(Edge e) {
+		long ticks = (long)Math.ceil(e.getLength() / GenSeq.TIME_EDGE_RATIO);
+		return (ticks < 1? 1 : ticks);
+	}
+	
+	/**
+	 * getWakeup()
+	 * 
+	 * @return The clock tick at which this traverser next needs to be stepped.
+	 */
+	public long getWakeup() {
+		return wakeup;
+	}
+	
+	/**
+	 * setWakeup(long wakeup)
+	 * 
+	 * @param wakeup - The clock tick at which this traverser should next be stepped.
+	 */
+	public void setWakeup(long wakeup) {
+		this.wakeup = wakeup;
+	}
+	
+	int getOrder() {
+		return order;
+	}
+	
+	void setOrder(int order) {
+		this.order = order;
+	}
+	
+	/**
+	 * getRandom()
+	 * 
+	 * @return This traverser's random number stream. Anything that makes a
+	 * random choice on behalf of this traverser should use it, so that
+	 * playback is reproducible.
+	 */
+	public RandomStream getRandom() {
+		return rand;
+	}
+	
+	/**
+	 * setReceiver(Receiver out)
+	 * 
+	 * @param out - Where MIDI messages played by this traverser should go.
+	 */
+	public void setReceiver(Receiver out) {
+		this.out = out;
+	}
+	
+	/**
+	 * setFeed(VisitFeed feed)
+	 * 
+	 * @param feed - Where to announce the nodes this traverser visits, or null.
+	 * Must only be published to from the thread that steps this traverser.
+	 */
+	public void setFeed(VisitFeed feed) {
+		this.feed = feed;
+	}
+	
+	/**
+	 * send(MidiMessage msg)
+	 * 
+	 * Play a MIDI message at the time of the current tick.
+	 * 
+	 * @param msg - The message
+	 */
+	public void send(MidiMessage msg) {
+		if (null != out)
+			out.send(msg, timestamp);
+	}
+	
+	/**
+	 * getTimestamp()
+	 * 
+	 * @return The device timestamp (us) that messages sent on the current tick
+	 * should carry.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * chooseEvent()
+	 * 
+	 * @return One of the current node's events, chosen by likelihood, or null
+	 * if the node has none.
+	 */
+	public NodeEvent chooseEvent() {
+		return snap.chooseEvent(node, rand);
+	}
+	
+	/**
+	 * enterMetaNode()
+	 * Sends this ScoreTraverser from the (Meta)Node it's at to one of the
+	 * prime Nodes inside it. It will come back out of the MetaNode once it
+	 * reaches a dead end in there.
+	 * 
+	 * @return True if the traverser moved, false if there was nowhere to go.
+	 */
+	public boolean enterMetaNode() {
+		int prime = snap.choosePrime(node, rand);
+		if (prime < 0) return false;
 		
-		// Adding a constant value each time means we have a linear progression
-		// along the current edge.
-		if (EDGE_WAIT == status)
-			edgeDist += GenSeq.TIME_EDGE_RATIO;
-			
-		// Update the traverser
-		run();
+		node = prime;
+		status = NODE_PLAY;
+		return true;
 	}
 	
 	/**
 	 * setLocation(Node n)
 	 * Changes the current location of the ScoreTraverser to some other
-	 * node. This is useful for jumping into and out of MetaNodes, or for
-	 * responding to MIDI input.
+	 * node. This is useful for responding to MIDI input.
 	 * 
 	 * @param n - The new location (Node) of this ScoreTraverser
 	 */
 	public void setLocation(Node n) {
-		currn = n;
+		int i = snap.indexOf(n);
+		if (i < 0) return;
+		
+		node = i;
 		status = NODE_PLAY;
 	}
 	
+	/**
+	 * rebind(ScoreSnapshot latest)
+	 * The score has been edited: carry on walking the newer snapshot from
+	 * the same place. If the node we're at (or heading to) has been deleted,
+	 * this traverser is done.
+	 * 
+	 * @param latest - The newer snapshot
+	 */
+	public void rebind(ScoreSnapshot latest) {
+		ScoreSnapshot old = snap;
+		int was = node;
+		node = latest.indexOf(old.getNode(was));
+		if (EDGE_WAIT == status)
+			target = latest.indexOf(old.getNode(target));
+		
+		snap = latest;
+		
+		if (node < 0 || (EDGE_WAIT == status && target < 0)) {
+			// We won't be leaving the usual way, so say so now
+			leaveAll(old, was);
+			done = true;
+		}
+	}
+	
 	/**
 	 * stopTraverse() - Stops the traversal of the score.
 	 * 
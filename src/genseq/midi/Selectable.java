@@ -0,0 +1,13 @@
+package genseq.midi;
+
+public interface Selectable {
+
+	// A number that identifies this object for as long as the program runs. No two
+	// objects of the same kind share one, and it never changes (not even when moved).
+	public int getID();
+	// Show this object as selected / not selected.
+	public void select();
+	public void deselect();
+	public boolean isSelected();
+	
+}
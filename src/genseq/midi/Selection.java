@@ -0,0 +1,148 @@
+/**
+ * Selection.java
+ *
+ * The set of selected Nodes (or Edges) on a Score. Membership is kept in
+ * a BitSet indexed by the objects' IDs, so checking, adding and removing
+ * take constant time no matter how much is selected.
+ *
+ * The objects themselves are also kept in a list, for code that wants to
+ * walk the selection. Removing from the list would cost time proportional
+ * to the selection, so removed objects are only dropped from the list the
+ * next time somebody asks for it (see items()).
+ *
+ * Not thread-safe; the selection belongs to the GUI thread.
+ *
+ */
+
+package genseq.midi;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+public class Selection<T extends Selectable> {
+
+	/*** INTERNAL CONTROL ***/
+	private final BitSet selected;		// IDs of the selected objects
+	private final BitSet listed;		// IDs of the objects in `items' (selected or not)
+	private final ArrayList<T> items;
+	private int size;
+	private boolean stale;				// Does `items' hold objects that are no longer selected?
+	private int version;				// Changes whenever the selection does
+
+	public Selection() {
+		selected = new BitSet();
+		listed = new BitSet();
+		items = new ArrayList<T>();
+		size = 0;
+		stale = false;
+		version = 0;
+	}
+
+	/**
+	 * add(T item) - Select an object.
+	 *
+	 * @return True if it wasn't already selected.
+	 */
+	public boolean add(T item) {
+		int id = item.getID();
+		if (selected.get(id)) return false;
+
+		selected.set(id);
+		item.select();
+		size++;
+		version++;
+
+		if (! listed.get(id)) {
+			listed.set(id);
+			items.add(item);
+		}
+		return true;
+	}
+
+	/**
+	 * remove(T item) - Deselect an object.
+	 *
+	 * @return True if it was selected.
+	 */
+	public boolean remove(T item) {
+		int id = item.getID();
+		if (! selected.get(id)) return false;
+
+		selected.clear(id);
+		item.deselect();
+		size--;
+		version++;
+		stale = true;
+		return true;
+	}
+
+	/**
+	 * contains(T item)
+	 *
+	 * @return True if the object is selected.
+	 */
+	public boolean contains(T item) {
+		return selected.get(item.getID());
+	}
+
+	/**
+	 * clear() - Deselect everything.
+	 */
+	public void clear() {
+		for (int i = 0; i<items.size(); i++) {
+			T item = items.get(i);
+			if (selected.get(item.getID()))
+				item.deselect();
+		}
+
+		selected.clear();
+		listed.clear();
+		items.clear();
+		size = 0;
+		stale = false;
+		version++;
+	}
+
+	/**
+	 * items()
+	 *
+	 * @return The selected objects, in the order they were selected. Don't
+	 * add to or remove from this list; use add() and remove() instead.
+	 */
+	public ArrayList<T> items() {
+		if (stale) {
+			int j = 0;
+			for (int i = 0; i<items.size(); i++) {
+				T item = items.get(i);
+				if (selected.get(item.getID()))
+					items.set(j++, item);
+				else
+					listed.clear(item.getID());
+			}
+			for (int i = items.size()-1; i>=j; i--)
+				items.remove(i);
+
+			stale = false;
+		}
+
+		return items;
+	}
+
+	/**
+	 * getVersion()
+	 *
+	 * @return A number that changes every time something is selected or deselected.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+}
@@ -0,0 +1,254 @@
+/**
+ * SpatialGrid.java
+ *
+ * A uniform grid over the score, for finding things near a point (or
+ * inside a rectangle) without looking at everything on the score. Each
+ * item is filed under every grid cell its bounding box touches; a query
+ * only looks in the cells the query rectangle touches, so its cost
+ * depends on how crowded that part of the score is, not on how big the
+ * score is.
+ *
+ * Items are plain objects (Nodes, Edges...) with a bounding box given
+ * by whoever inserts them. The grid doesn't know when an item moves:
+ * call move() whenever its bounding box changes.
+ *
+ * Not thread-safe. The grid belongs to the GUI thread, like the lists
+ * it indexes.
+ *
+ */
+
+package genseq.midi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+public class SpatialGrid<T> {
+
+	/*** INTERNAL CONTROL ***/
+	private final int cellSize;
+	private final HashMap<Long, ArrayList<Entry<T>>> cells;
+	private final IdentityHashMap<T, Entry<T>> entries;
+	private int queryStamp;		// Marks entries already reported by the current query
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param cellSize - Width and height of a grid cell, in pixels. Something
+	 * close to the size of a typical query works best.
+	 */
+	public SpatialGrid(int cellSize) {
+		if (cellSize < 1) throw new IllegalArgumentException("Cells must be at least 1 pixel wide");
+
+		this.cellSize = cellSize;
+		cells = new HashMap<Long, ArrayList<Entry<T>>>();
+		entries = new IdentityHashMap<T, Entry<T>>();
+		queryStamp = 0;
+	}
+
+	/**
+	 * insert(T item, int x1, int y1, int x2, int y2)
+	 *
+	 * File an item under its bounding box. If the item is already in the
+	 * grid, it is moved instead.
+	 *
+	 * @param item - The item
+	 * @param x1, y1, x2, y2 - Two opposite corners of the item's bounding box
+	 */
+	public void insert(T item, int x1, int y1, int x2, int y2) {
+		if (entries.containsKey(item)) {
+			move(item, x1, y1, x2, y2);
+			return;
+		}
+
+		Entry<T> e = new Entry<T>(item);
+		e.setBounds(x1, y1, x2, y2, cellSize);
+		entries.put(item, e);
+		file(e);
+	}
+
+	/**
+	 * move(T item, int x1, int y1, int x2, int y2)
+	 *
+	 * Tell the grid an item's bounding box has changed. Cheap if the item
+	 * stays within the same cells.
+	 *
+	 * @return False if the item isn't in the grid.
+	 */
+	public boolean move(T item, int x1, int y1, int x2, int y2) {
+		Entry<T> e = entries.get(item);
+		if (null == e) return false;
+
+		int cx1 = e.cx1, cy1 = e.cy1, cx2 = e.cx2, cy2 = e.cy2;
+		e.setBounds(x1, y1, x2, y2, cellSize);
+
+		// Same cells as before? Then there's no refiling to do.
+		if (cx1 == e.cx1 && cy1 == e.cy1 && cx2 == e.cx2 && cy2 == e.cy2)
+			return true;
+
+		unfile(e, cx1, cy1, cx2, cy2);
+		file(e);
+		return true;
+	}
+
+	/**
+	 * remove(T item)
+	 *
+	 * @return False if the item wasn't in the grid.
+	 */
+	public boolean remove(T item) {
+		Entry<T> e = entries.remove(item);
+		if (null == e) return false;
+
+		unfile(e, e.cx1, e.cy1, e.cx2, e.cy2);
+		return true;
+	}
+
+	/**
+	 * query(int x1, int y1, int x2, int y2, Collection<T> result)
+	 *
+	 * Find every item whose bounding box overlaps the given rectangle. Each
+	 * item is reported once, in no particular order.
+	 *
+	 * @param x1, y1, x2, y2 - Two opposite corners of the rectangle
+	 * @param result - Where to put the items found (it is not cleared first)
+	 * @return result
+	 */
+	public Collection<T> query(int x1, int y1, int x2, int y2, Collection<T> result) {
+		int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+		int minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+
+		int stamp = ++queryStamp;
+		for (int cx = cell(minX); cx <= cell(maxX); cx++) {
+			for (int cy = cell(minY); cy <= cell(maxY); cy++) {
+				ArrayList<Entry<T>> bucket = cells.get(key(cx, cy));
+				if (null == bucket) continue;
+
+				for (int i = 0; i<bucket.size(); i++) {
+					Entry<T> e = bucket.get(i);
+					if (e.stamp == stamp) continue;
+					e.stamp = stamp;
+
+					if (e.x2 >= minX && e.x1 <= maxX && e.y2 >= minY && e.y1 <= maxY)
+						result.add(e.item);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * contains(T item)
+	 *
+	 * @return True if the item is in the grid.
+	 */
+	public boolean contains(T item) {
+		return entries.containsKey(item);
+	}
+
+	/**
+	 * size()
+	 *
+	 * @return How many items are in the grid.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * clear() - Forget about everything.
+	 */
+	public void clear() {
+		cells.clear();
+		entries.clear();
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private int cell(int coord) {
+		return cell(coord, cellSize);
+	}
+
+	private static int cell(int coord, int cellSize) {
+		// Round towards negative infinity, so negative coordinates work too
+		return (coord >= 0? coord / cellSize : -((-(coord + 1)) / cellSize) - 1);
+	}
+
+	private static Long key(int cx, int cy) {
+		// Scrambled, so that Long.hashCode() doesn't give neighbouring cells the same hash
+		return ((long)cx << 32) | ((cy ^ cx * 0x9E3779B9) & 0xFFFFFFFFL);
+	}
+
+	private void file(Entry<T> e) {
+		for (int cx = e.cx1; cx <= e.cx2; cx++) {
+			for (int cy = e.cy1; cy <= e.cy2; cy++) {
+				Long k = key(cx, cy);
+				ArrayList<Entry<T>> bucket = cells.get(k);
+				if (null == bucket) {
+					bucket = new ArrayList<Entry<T>>(4);
+					cells.put(k, bucket);
+				}
+				bucket.add(e);
+			}
+		}
+	}
+
+	private void unfile(Entry<T> e, int cx1, int cy1, int cx2, int cy2) {
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				Long k = key(cx, cy);
+				ArrayList<Entry<T>> bucket = cells.get(k);
+				if (null == bucket) continue;
+
+				// Buckets are small and unordered: swap the last one into the hole
+				int i = bucket.indexOf(e);
+				if (i >= 0) {
+					int last = bucket.size() - 1;
+					bucket.set(i, bucket.get(last));
+					bucket.remove(last);
+				}
+				if (bucket.isEmpty())
+					cells.remove(k);
+			}
+		}
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * An item, its bounding box, and the range of cells it is filed under.
+	 */
+	private static class Entry<T> {
+
+		final T item;
+		int x1, y1, x2, y2;
+		int cx1, cy1, cx2, cy2;
+		int stamp;
+
+		Entry(T item) {
+			this.item = item;
+		}
+
+		void setBounds(int x1, int y1, int x2, int y2, int cellSize) {
+			this.x1 = Math.min(x1, x2);
+			this.x2 = Math.max(x1, x2);
+			this.y1 = Math.min(y1, y2);
+			this.y2 = Math.max(y1, y2);
+
+			cx1 = cell(this.x1, cellSize);
+			cx2 = cell(this.x2, cellSize);
+			cy1 = cell(this.y1, cellSize);
+			cy2 = cell(this.y2, cellSize);
+		}
+
+	}
+
+}
@@ -0,0 +1,194 @@
+/**
+ * TraverserEngine.java
+ *
+ * Steps every ScoreTraverser in a score from a single thread (the
+ * PlaybackClock's). Traversers are plain state, so a score with
+ * thousands of prime nodes, or heavy MetaNode nesting, costs no more
+ * OS threads than an empty one.
+ *
+ * Traversers are kept in a priority queue keyed on the tick at which
+ * they next have something to do (the end of the edge they're on), so
+ * a tick where nothing happens costs a single peek, and the work done
+ * grows with the number of events rather than traversers x ticks.
+ *
+ * The engine is not thread-safe: add traversers before the clock starts,
+ * and clear() it only after the clock has stopped. The one exception is
+ * the score itself: if the engine follow()s a Score, it picks up the
+ * Score's newest snapshot at the start of each tick, and moves every
+ * traverser over to it. The traversers also announce the nodes they
+ * visit on that Score's VisitFeed, so it can show them playing.
+ *
+ */
+
+package genseq.midi;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import javax.sound.midi.Receiver;
+
+public class TraverserEngine {
+
+	/*** INTERNAL CONSTANTS ***/
+	// Returned by nextWakeup() when there's nothing left to do
+	public static final long NEVER = Long.MAX_VALUE;
+
+	/*** EXTERNAL REFERENCES ***/
+	// Where the traversers' MIDI output goes
+	private Receiver out;
+	
+	// Where newer snapshots come from, if anywhere
+	private Score source;
+	
+	// Where the traversers announce the nodes they visit, if anywhere
+	private VisitFeed feed;
+	
+	/*** INTERNAL CONTROL ***/
+	private ScoreSnapshot snapshot;
+	private PriorityQueue<ScoreTraverser> queue;
+	private long currentTick;
+	private int added;
+
+	/**
+	 * CONSTRUCTOR
+	 * 
+	 * @param out - Where the traversers' MIDI output should go. Timestamps
+	 * handed to tick() are passed along to it untouched.
+	 * @param snapshot - The compiled score the traversers are walking.
+	 */
+	public TraverserEngine(Receiver out, ScoreSnapshot snapshot) {
+		this.out = out;
+		this.snapshot = snapshot;
+		this.source = null;
+		this.feed = null;
+		
+		queue = new PriorityQueue<ScoreTraverser>(16, new WakeupComparator());
+		currentTick = 0;
+		added = 0;
+	}
+
+	/**
+	 * add(ScoreTraverser t) - Start stepping a traverser on the next tick.
+	 *
+	 * @param t - The traverser
+	 */
+	public void add(ScoreTraverser t) {
+		t.setReceiver(out);
+		t.setFeed(feed);
+		t.setWakeup(currentTick);
+		t.setOrder(added++);
+		queue.add(t);
+	}
+
+	/**
+	 * follow(Score score) - Keep up with edits made to a score while it plays.
+	 *
+	 * @param score - The Score the engine's snapshot was compiled from.
+	 */
+	public void follow(Score score) {
+		source = score;
+		feed = score.getVisitFeed();
+		
+		for (ScoreTraverser t : queue)
+			t.setFeed(feed);
+	}
+
+	/**
+	 * tick(long tick, long timestamp)
+	 *
+	 * Step every traverser that is due on this tick, and forget about the
+	 * ones that have finished.
+	 *
+	 * @param tick - The current clock tick.
+	 * @param timestamp - When this tick should sound, in whatever units the
+	 * engine's Receiver understands (device microseconds for live playback).
+	 */
+	public void tick(long tick, long timestamp) {
+		currentTick = tick;
+
+		// One volatile read per tick; nothing else to do unless the score was edited
+		if (null != source) {
+			ScoreSnapshot latest = source.getSnapshot();
+			if (latest != snapshot) {
+				for (ScoreTraverser t : queue)
+					t.rebind(latest);
+				snapshot = latest;
+			}
+		}
+
+		ScoreTraverser t = queue.peek();
+		while (null != t && t.getWakeup() <= tick) {
+			queue.poll();
+			t.step(tick, timestamp);
+
+			if (! t.isDone())
+				queue.add(t);
+
+			t = queue.peek();
+		}
+	}
+
+	/**
+	 * getSnapshot()
+	 *
+	 * @return The compiled score the traversers are currently walking.
+	 */
+	public ScoreSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * nextWakeup()
+	 *
+	 * @return The earliest tick at which some traverser has something to do,
+	 * or NEVER if all traversers have finished.
+	 */
+	public long nextWakeup() {
+		ScoreTraverser t = queue.peek();
+		return (null == t? NEVER : t.getWakeup());
+	}
+
+	/**
+	 * clear() - Stop and forget about all traversers.
+	 */
+	public void clear() {
+		for (ScoreTraverser t : queue)
+			t.stopTraverse();
+
+		queue.clear();
+	}
+
+	/**
+	 * size()
+	 *
+	 * @return How many traversers are still running.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * isFinished()
+	 *
+	 * @return True if every traverser has run to the end of its circuit.
+	 */
+	public boolean isFinished() {
+		return queue.isEmpty();
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	private class WakeupComparator implements Comparator<ScoreTraverser> {
+
+		public int compare(ScoreTraverser o1, ScoreTraverser o2) {
+			if (o1.getWakeup() != o2.getWakeup())
+				return (o1.getWakeup() < o2.getWakeup()? -1 : 1);
+
+			return o1.getOrder() - o2.getOrder();
+		}
+
+	}
+
+}
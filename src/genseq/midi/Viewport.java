@@ -0,0 +1,121 @@
+/**
+ * Viewport.java
+ *
+ * Which part of a Score is on screen, and how big: a zoom factor (screen
+ * pixels per score pixel) and the score coordinates of the top-left
+ * corner of the canvas. Mouse events come in screen coordinates and are
+ * turned into score coordinates here; the draw loop goes the other way
+ * with apply().
+ *
+ * Viewports never change. Zooming or panning makes a new one, which the
+ * Score swaps in whole, so the draw loop can read it while the GUI
+ * thread is moving it around.
+ *
+ */
+
+package genseq.midi;
+
+import processing.core.PGraphics;
+
+public final class Viewport {
+
+	/*** INTERNAL CONSTANTS ***/
+	public static final float MIN_ZOOM = 0.05f;
+	public static final float MAX_ZOOM = 8.0f;
+
+	/** Everything at its actual size, with the score's origin at the top-left. */
+	public static final Viewport DEFAULT = new Viewport(1.0f, 0.0f, 0.0f);
+
+	/*** INTERNAL CONTROL ***/
+	private final float zoom;
+	private final float left, top;	// Score coordinates of the screen's origin
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param zoom - Screen pixels per score pixel
+	 * @param left - Score x-coordinate at the left edge of the screen
+	 * @param top - Score y-coordinate at the top edge of the screen
+	 */
+	public Viewport(float zoom, float left, float top) {
+		if (zoom <= 0.0f) throw new IllegalArgumentException("Zoom must be positive");
+
+		this.zoom = zoom;
+		this.left = left;
+		this.top = top;
+	}
+
+	public float getZoom() {
+		return zoom;
+	}
+
+	public float getLeft() {
+		return left;
+	}
+
+	public float getTop() {
+		return top;
+	}
+
+	/**
+	 * scoreX(double screenX), scoreY(double screenY)
+	 *
+	 * @return Where a point on screen is on the score.
+	 */
+	public double scoreX(double screenX) {
+		return left + screenX / zoom;
+	}
+
+	public double scoreY(double screenY) {
+		return top + screenY / zoom;
+	}
+
+	/**
+	 * screenX(double scoreX), screenY(double scoreY)
+	 *
+	 * @return Where a point on the score is on screen.
+	 */
+	public double screenX(double scoreX) {
+		return (scoreX - left) * zoom;
+	}
+
+	public double screenY(double scoreY) {
+		return (scoreY - top) * zoom;
+	}
+
+	/**
+	 * zoomedBy(double factor, double screenX, double screenY)
+	 *
+	 * @param factor - How much bigger things should get (less than 1 zooms out)
+	 * @param screenX, screenY - The point on screen that should stay put
+	 * @return A new Viewport. The zoom is kept between MIN_ZOOM and MAX_ZOOM.
+	 */
+	public Viewport zoomedBy(double factor, double screenX, double screenY) {
+		float z = (float)Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+
+		return new Viewport(z,
+				(float)(scoreX(screenX) - screenX / z),
+				(float)(scoreY(screenY) - screenY / z));
+	}
+
+	/**
+	 * pannedBy(double dx, double dy)
+	 *
+	 * @param dx, dy - How far the score should move on screen, in screen pixels
+	 * @return A new Viewport.
+	 */
+	public Viewport pannedBy(double dx, double dy) {
+		return new Viewport(zoom, (float)(left - dx / zoom), (float)(top - dy / zoom));
+	}
+
+	/**
+	 * apply(PGraphics pg)
+	 *
+	 * Transform pg so that drawing in score coordinates ends up in the right
+	 * place on screen. Push the matrix first if you want to undo it.
+	 */
+	public void apply(PGraphics pg) {
+		pg.scale(zoom);
+		pg.translate(-left, -top);
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * VisitFeed.java
+ *
+ * How playback tells the draw loop which Nodes are playing, without
+ * either of them touching the other's state. Traversers publish a
+ * "visit" event whenever they arrive at or leave a Node; the draw loop
+ * drains the events once per frame and works out the highlights itself
+ * (see Node.getGlow()).
+ *
+ * This is a single-producer, single-consumer ring buffer: one thread
+ * (the playback clock's) publishes, and one thread (Processing's)
+ * drains. The producer never blocks or takes a lock. If the draw loop
+ * falls so far behind that the ring fills up, arrivals are dropped (and
+ * counted) rather than holding up playback. Leaves never are: the ring
+ * always keeps room for a leave for every arrival that got in, so a Node
+ * can't be left showing a traverser that has gone. In return, the
+ * producer may only publish a leave for an arrival that got in.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.Node;
+
+public class VisitFeed {
+
+	/*** INTERNAL CONSTANTS ***/
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	/*** INTERNAL CONTROL ***/
+	private final Node[] nodes;
+	private final long[] times;			// System.nanoTime() at which each visit shows
+	private final boolean[] arrivals;	// Arriving (true) or leaving (false)?
+	private final int mask;
+	private volatile long head;		// Next slot to publish to. Written by the producer only.
+	private volatile long tail;		// Next slot to drain. Written by the consumer (or reset()) only.
+	private volatile long delay;	// How long after publishing a visit shows (ns)
+	private long dropped;			// Producer only
+	private long owed;				// Producer only: leaves still to come for arrivals that got in
+
+	public VisitFeed() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * CONSTRUCTOR
+	 *
+	 * @param capacity - How many events can be waiting at once. Rounded up
+	 * to a power of two.
+	 */
+	public VisitFeed(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+
+		nodes = new Node[size];
+		times = new long[size];
+		arrivals = new boolean[size];
+		mask = size - 1;
+		head = tail = 0;
+		delay = 0;
+		dropped = 0;
+		owed = 0;
+	}
+
+	/**
+	 * setDelay(long delay)
+	 *
+	 * @param delay - How long (ns) after being published visits should be
+	 * shown, e.g. the lookahead between playback and the MIDI device.
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * publish(Node n, boolean arriving)
+	 *
+	 * Producer only. Never blocks. Only publish a leave if publishing the
+	 * arrival it goes with returned true.
+	 *
+	 * @param n - The Node visited
+	 * @param arriving - True when a traverser gets to n, false when it leaves
+	 * @return False if the feed was full and the event was dropped. Only
+	 * ever the case for arrivals.
+	 */
+	public boolean publish(Node n, boolean arriving) {
+		long h = head;
+		long used = h - tail;
+		
+		if (arriving) {
+			// Room for this, its own leave, and every leave still owed?
+			if (used + owed + 2 > nodes.length) {
+				dropped++;
+				return false;
+			}
+			owed++;
+		} else {
+			// Can only happen if a leave was published without its arrival
+			if (used >= nodes.length) {
+				dropped++;
+				return false;
+			}
+			if (owed > 0)
+				owed--;
+		}
+
+		int i = (int)(h & mask);
+		nodes[i] = n;
+		times[i] = System.nanoTime() + delay;
+		arrivals[i] = arriving;
+
+		// The slot is filled in before the consumer can see it
+		head = h + 1;
+		return true;
+	}
+
+	/**
+	 * drain(long now, Visitor v)
+	 *
+	 * Consumer only. Hand every event due by `now' to v, oldest first.
+	 * (The lock is only ever contended by reset().)
+	 *
+	 * @param now - System.nanoTime(). Events stamped later stay in the feed.
+	 * @param v - What to do with each event
+	 * @return How many events were drained.
+	 */
+	public synchronized int drain(long now, Visitor v) {
+		long t = tail;
+		long h = head;
+		int count = 0;
+
+		while (t < h) {
+			int i = (int)(t & mask);
+			if (times[i] - now > 0)
+				break;
+
+			v.visit(nodes[i], arrivals[i], times[i]);
+			nodes[i] = null;
+			t++;
+			count++;
+		}
+
+		// Hand the slots back to the producer
+		tail = t;
+		return count;
+	}
+
+	/**
+	 * reset()
+	 *
+	 * Throw away every event waiting in the feed, and forget about the
+	 * leaves still owed. Only once the producer has stopped (e.g. playback
+	 * has), but from any thread: it waits for a drain() that's under way.
+	 */
+	public synchronized void reset() {
+		long t = tail;
+		long h = head;
+		for (; t < h; t++)
+			nodes[(int)(t & mask)] = null;
+
+		tail = t;
+		owed = 0;
+	}
+
+	/**
+	 * getDropped()
+	 *
+	 * @return How many events have been dropped because the feed was full.
+	 * Only meaningful on the producer's thread, or after it has stopped.
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	public interface Visitor {
+
+		/**
+		 * visit(Node n, boolean arriving, long time)
+		 *
+		 * @param n - The Node visited
+		 * @param arriving - True when a traverser got to n, false when it left
+		 * @param time - System.nanoTime() at which the visit should show
+		 */
+		public void visit(Node n, boolean arriving, long time);
+
+	}
+
+}
@@ -135,9 +135,48 @@ public abstract class DrawableObject {
 	 * object properly.
 	 **/
 	public void setupDrawPrefs() {
-		parent.fill(r, g, b, a);
-		parent.stroke(sr, sg, sb, sa);
-		parent.strokeWeight(strokeWeight);
+		setupDrawPrefs(parent.g);
+	}
+	
+	/**
+	 * setupDrawPrefs(PGraphics pg)
+	 *
+	 * Same as setupDrawPrefs(), on any graphics context (e.g. an offscreen layer).
+	 **/
+	public void setupDrawPrefs(PGraphics pg) {
+		pg.fill(r, g, b, a);
+		pg.stroke(sr, sg, sb, sa);
+		pg.strokeWeight(strokeWeight);
+	}
+	
+	/**
+	 * render() - Draw this object on the applet.
+	 **/
+	public void render() {
+		render(parent.g);
+	}
+	
+	/**
+	 * renderStatic(PGraphics pg)
+	 *
+	 * Draw this object the way it looks when nothing is happening to it (not
+	 * selected, not playing...). This is what gets cached in the Score's
+	 * static layer; anything else is drawn over the top by render().
+	 **/
+	public void renderStatic(PGraphics pg) {
+		render(pg);
+	}
+	
+	/**
+	 * renderSimple(PGraphics pg, float scale)
+	 *
+	 * Draw a rough version of this object, for when it's too small on screen
+	 * for detail to show.
+	 *
+	 * @param scale - How many screen pixels one pixel on pg ends up as
+	 **/
+	public void renderSimple(PGraphics pg, float scale) {
+		renderStatic(pg);
 	}
 	
 	
@@ -145,6 +184,9 @@ public abstract class DrawableObject {
 	 * ABSTRACT METHODS
 	 ******************/
 	
-	public abstract void render();
+	/**
+	 * render(PGraphics pg) - Draw this object, as it looks right now, on pg.
+	 **/
+	public abstract void render(PGraphics pg);
 
 }
\ No newline at end of file
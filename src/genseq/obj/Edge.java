@@ -4,15 +4,21 @@ import javax.sound.midi.InvalidMidiDataException;
 
 import genseq.midi.Playable;
 import genseq.midi.ScoreTraverser;
+import genseq.midi.Selectable;
 import processing.core.*;
 
-public class Edge extends DrawableObject implements Playable {
+public class Edge extends DrawableObject implements Playable, Selectable {
 	private static final int DEFAULT_STROKE_RED = 0;
 	private static final int DEFAULT_STROKE_GREEN = 0;
 	private static final int DEFAULT_STROKE_BLUE = 0;
 	private static final int DEFAULT_STROKE_WEIGHT = 2;
 	private static final int SELECTED_STROKE_WEIGHT = 5;
+	private static final float SIMPLE_SELECTED_WEIGHT = 2.0f;	// Of a selected hairline (see renderSimple()), in pixels
+	private static final double DEFAULT_LIKELIHOOD = 1.0;
 	
+	private static int nextID = 0;	// ID the next Edge will get
+	
+	private final int id;		// Stable ID of this Edge (see getID())
 	private double lhood;		// Likelihood of this Edge being chosen by its source Node
 	private Node from, to;		// Source and Destination Nodes, respectively
 	private int length;			// This Edge's visual length, in pixels
@@ -20,9 +26,11 @@ public class Edge extends DrawableObject implements Playable {
 	
 	public Edge(PApplet parent, Node from, Node to) {
 		super(parent);
+		id = nextID++;
 		
 		this.from = from;
 		this.to = to;
+		lhood = DEFAULT_LIKELIHOOD;
 		
 		setStrokeColor(DEFAULT_STROKE_RED, DEFAULT_STROKE_GREEN, DEFAULT_STROKE_BLUE);
 		setStrokeWeight(DEFAULT_STROKE_WEIGHT);
@@ -38,6 +46,15 @@ public class Edge extends DrawableObject implements Playable {
 	 * ACCESSORS
 	 ***********/
 	
+	/**
+	 * getID()
+	 * 
+	 * @return A number identifying this Edge, unique among Edges. It never changes.
+	 */
+	public int getID() {
+		return id;
+	}
+	
 	public Node getSource() {
 		return from;
 	}
@@ -50,10 +67,22 @@ public class Edge extends DrawableObject implements Playable {
 		return length;
 	}
 	
+	/**
+	 * getLikelihood()
+	 * 
+	 * @return How likely this Edge is to be chosen, relative to the other
+	 * outbound Edges of its source Node.
+	 */
+	public double getLikelihood() {
+		return lhood;
+	}
+	
 	/***********
 	 * MUTATORS
 	 ***********/
 	
+	// N.B. Changing either end changes getKey(). Take the Edge off of its Score first.
+	
 	public void setSource(Node n) {
 		from = n;
 		calculateLength();
@@ -64,6 +93,19 @@ public class Edge extends DrawableObject implements Playable {
 		calculateLength();
 	}
 	
+	/**
+	 * setLikelihood(double lhood)
+	 * 
+	 * @param lhood - How likely this Edge is to be chosen, relative to the other
+	 * outbound Edges of its source Node.
+	 */
+	public void setLikelihood(double lhood) {
+		this.lhood = lhood;
+		
+		// Only the source Node chooses by it
+		from.edgeChanged(this);
+	}
+	
 	/**
 	 * select()
 	 * 
@@ -91,29 +133,84 @@ public class Edge extends DrawableObject implements Playable {
 		return selected;
 	}
 	
-	public void render() {
-		setupDrawPrefs();
+	public void render(PGraphics pg) {
+		draw(pg, selected);
+	}
+	
+	/**
+	 * renderStatic(PGraphics pg) - draw this edge, not selected
+	 */
+	public void renderStatic(PGraphics pg) {
+		draw(pg, false);
+	}
 	
-		parent.pushMatrix();
+	/**
+	 * renderSimple(PGraphics pg, float scale) - a plain hairline, no arrowhead
+	 * (a heavier one if selected)
+	 */
+	public void renderSimple(PGraphics pg, float scale) {
+		pg.stroke(sr, sg, sb, sa);
+		pg.strokeWeight((selected? SIMPLE_SELECTED_WEIGHT : 1.0f) / scale);
+		pg.line(from.getX(), from.getY(), to.getX(), to.getY());
+	}
+	
+	private void draw(PGraphics pg, boolean selected) {
+		setupDrawPrefs(pg);
+	
+		pg.pushMatrix();
 		
-		parent.translate(from.getX(), from.getY());	
-		parent.rotate((float)Math.atan2((double)(to.getY() - from.getY()),
+		pg.translate(from.getX(), from.getY());	
+		pg.rotate((float)Math.atan2((double)(to.getY() - from.getY()),
 										(double)(to.getX() - from.getX())));
 		
 		if (selected)
-			parent.strokeWeight(SELECTED_STROKE_WEIGHT);
+			pg.strokeWeight(SELECTED_STROKE_WEIGHT);
 		
-		parent.line(from.getWidth()/2, 0, length, 0);
-		parent.triangle(length, 0, length - 5, -5, length - 5, 5);
+		pg.line(from.getWidth()/2, 0, length, 0);
+		pg.triangle(length, 0, length - 5, -5, length - 5, 5);
 		
-		parent.popMatrix();
+		pg.popMatrix();
 	}
 	
+	/**
+	 * equals()
+	 * 
+	 * @param e - Edge of comparison.
+	 * @return - True if e is this very edge (same ID). To see whether two edges
+	 * join the same nodes, compare their getKey()s.
+	 */
 	public boolean equals(Edge e) {
-		return (to.getX() == e.getDestination().getX() &&
-				from.getX() == e.getSource().getX() &&
-				to.getY() == e.getDestination().getY() &&
-				from.getY() == e.getSource().getY());
+		return (null != e && e.getID() == id);
+	}
+	
+	public boolean equals(Object o) {
+		return (o instanceof Edge && equals((Edge)o));
+	}
+	
+	public int hashCode() {
+		return id;
+	}
+	
+	/**
+	 * key(Node from, Node to)
+	 * 
+	 * @return A number identifying the connection from one Node to another,
+	 * made of the Nodes' IDs. There should be at most one Edge per key.
+	 * (The destination's half is scrambled with the source's, or else
+	 * Long.hashCode() would give Edges between neighbouring IDs the same hash.)
+	 */
+	public static long key(Node from, Node to) {
+		int f = from.getID();
+		return ((long)f << 32) | ((to.getID() ^ f * 0x9E3779B9) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * getKey()
+	 * 
+	 * @return key(getSource(), getDestination())
+	 */
+	public long getKey() {
+		return key(from, to);
 	}
 	
 	// TODO: Implement this method if necessary.
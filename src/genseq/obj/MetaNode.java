@@ -25,9 +25,11 @@ import genseq.midi.ScoreTraverser;
 import javax.sound.midi.InvalidMidiDataException;
 
 import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
 
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Collection;
 
 public class MetaNode extends Node {
 
@@ -60,7 +62,6 @@ public class MetaNode extends Node {
 	/*** INTERNAL CONTROL ***/
 	private ArrayList<Node> nodes;
 	private ArrayList<Edge>	edges;
-	private Node currNode;
 	private int metaID;
 	
 	public MetaNode(GenSeq parent, int metaID, int x, int y) {
@@ -69,8 +70,6 @@ public class MetaNode extends Node {
 		
 		nodes = new ArrayList<Node>();
 		edges = new ArrayList<Edge>();
-		
-		currNode = null;
 	}
 
 	public MetaNode(Node n) {
@@ -94,94 +93,81 @@ public class MetaNode extends Node {
 		this.metaID = metaID;
 	}
 	
+	/**
+	 * encapsulate(Collection<Node> contents)
+	 * 
+	 * Puts Nodes inside of this MetaNode.
+	 * 
+	 * @param contents - Nodes that this MetaNode should contain
+	 */
+	public void encapsulate(Collection<Node> contents) {
+		for (Node n : contents) {
+			n.setMetaNode(this);
+			nodes.add(n);
+		}
+	}
+	
+	/**
+	 * release()
+	 * 
+	 * Undoes encapsulate(): lets go of every Node inside this MetaNode.
+	 */
+	public void release() {
+		for (Node n : nodes) {
+			if (this == n.getMetaNode())
+				n.setMetaNode(null);
+		}
+		nodes.clear();
+	}
+	
 	/**
 	 * respond()
 	 * 
-	 * What to do when called on to play.
+	 * What to do when called on to play. The ScoreTraverser is sent to one of
+	 * the prime Nodes inside this MetaNode, and carries on from there.
 	 * 
 	 */
 	public NodeEvent respond(NodeEvent lastEvent, ScoreTraverser t) throws InvalidMidiDataException {
-		/*
-		 * 1. Check to see if we have a currNode, if not,
-		 * set it to be one of the prime nodes and set the Traverser.
-		 * 2. Call on the current Node to respond
-		 */
-		
-		if (null == currNode) {
-			// Select a Prime node as our "entrance"
-			ArrayList<Node> primeNodes = new ArrayList<Node>();
-			for (Node n : nodes) {
-				if (n.isPrimeNode())
-					primeNodes.add(n);
-			}
-			Random rand = new Random();
-			int whichPrime = rand.nextInt(primeNodes.size());
-			currNode = primeNodes.get(whichPrime);
-		
-			// Create a new ScoreTraverser within this MetaNode
-			ScoreTraverser st = new ScoreTraverser((GenSeq)parent, currNode);
-			// Interrupt the old Traverser
-			try {
-				t.interrupt();
-			} catch (SecurityException e) {
-				e.printStackTrace();
-			}
-			st.start();
-			t = st;
-		}
-		
-		/*
-		 * At this point, the ScoreTraverser is already on the right track. It will correctly
-		 * choose Nodes and Edges that succeed its current position. However, we do need to
-		 * know when/if the Traverser needs to exit this MN. 
-		 */
+		// Redirect the Traverser to one of our prime Nodes (the "entrance"). It will correctly
+		// choose Nodes and Edges that succeed its new position, and will come back out through
+		// our own edges once it hits a dead end. Nothing to enter? Then we're just a Node with no event.
+		t.enterMetaNode();
 		
 		// Return the last NodeEvent, which could still be useful to the Node inside of this MetaNode.
 		return lastEvent;
 	}
 	
 	/**
-	 * stop()
-	 * The ScoreTraverser has reached a Node inside of this MetaNode with
-	 * no outbound Edges.
+	 * glyph(boolean lit)
 	 * 
-	 * @param t - The Traverser
-	 * @throws InvalidMidiDataException
+	 * @param lit - Whether this node is playing
+	 * @return The SpriteAtlas glyph this MetaNode is drawn with.
 	 */
-	public void stop(ScoreTraverser t) throws InvalidMidiDataException {
-		// Create a new ScoreTraverser at this Node
-		ScoreTraverser st = new ScoreTraverser((GenSeq)parent, this);
-		// Interrupt the old Traverser
-		try {
-			t.interrupt();
-		} catch (SecurityException e) {
-			e.printStackTrace();
-		}
-		st.start();
-		t = st;
+	protected int glyph(boolean lit) {
+		if (lit)
+			return SpriteAtlas.LIT_META_NODE;
+		return (prime? SpriteAtlas.PRIME_META_NODE : SpriteAtlas.META_NODE);
 	}
 	
-	public boolean equals(MetaNode mn) {
-		return (mn.getMetaID() == this.getMetaID());
+	/**
+	 * drawGlyph(PGraphics pg, int glyph, int pad) - a square instead of a circle
+	 *
+	 **/
+	protected void drawGlyph(PGraphics pg, int glyph, int pad) {
+		if (SpriteAtlas.LIT_META_NODE == glyph)
+			setupHighlightDrawPrefs(pg);
+		else
+			setupStaticDrawPrefs(pg);
+		
+		pg.rectMode(PApplet.CORNER);
+		pg.rect(pad, pad, w, w);
 	}
-
+	
 	/**
-	 * render() - draw this object
+	 * blit(PGraphics pg, PImage sprite) - the square hangs off (x, y) by its corner
 	 *
 	 **/
-	public void render() {
-		setupDrawPrefs();
-
-		parent.pushMatrix();
-		parent.translate(x, y);
-
-		if (selected) {
-			parent.imageMode(PApplet.CENTER);
-			parent.image(img, 0, 0);
-		}
-
-		parent.rect(0, 0, w, w);
-		parent.popMatrix();
-
+	protected void blit(PGraphics pg, PImage sprite) {
+		pg.image(sprite, x - SpriteAtlas.PAD, y - SpriteAtlas.PAD);
 	}
 }
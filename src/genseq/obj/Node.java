@@ -4,17 +4,12 @@ import genseq.midi.*;
 import processing.core.*;
 import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Random;
 
 import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MidiUnavailableException;
-import javax.sound.midi.Receiver;
 import javax.sound.midi.MidiMessage;
-import javax.sound.midi.MidiSystem;
 import javax.sound.midi.ShortMessage;
 
-public class Node extends DrawableObject implements MIDIConstants, Playable {
+public class Node extends DrawableObject implements MIDIConstants, Playable, Selectable {
 
 	/*** INTERNAL CONSTANTS ***/
 	protected static final int DEFAULT_WIDTH = 30;
@@ -42,27 +37,36 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	protected static final int SELECT_HALO_RED = 255;
 	protected static final int SELECT_HALO_GREEN = 255;
 	protected static final int SELECT_HALO_BLUE = 200;
+	protected static final float SIMPLE_POINT_SIZE = 2.0f;	// Smallest a node gets on screen (pixels)
+	protected static final long GLOW_FADE = 250000000L;		// How long the highlight takes to fade out (ns)
 
 	/*** INTERNAL CONTROL / ATTRIBUTES ***/
+	private static int nextID = 0;		// ID the next Node will get
+	protected final int id;			// Stable ID of this Node (see getID())
+	protected int serial;			// Number of this Node in its Score's saved state (see getSerial())
+	
 	// List of the edges incident to this node
 	protected ArrayList<Edge> edges;			// "edges" contains any edge into or out of this node.
 	protected ArrayList<Edge> inboundEdges;	// "inboundEdges" contains only edges into this node.
 	protected ArrayList<Edge> outboundEdges;	// "outboundEdges" contains only edges out of this node.
+	protected AliasTable<Edge> edgeTable;		// Chooses from outboundEdges by likelihood. null until needed.
 
 	protected boolean prime;	// Whether or not the sequencer should begin playing with this node
 	protected boolean legato; // True if other previous event's notes should be stopped first before this node responds.
 	protected ArrayList<NodeEvent> eventList;	// List of pitches that may be played
+	protected AliasTable<NodeEvent> eventTable;	// Chooses from eventList by likelihood. null until needed.
 	protected boolean selected;
 	
+	// Playback highlight. Only the draw loop touches these: playback tells it
+	// about visits through a VisitFeed.
+	protected int visitors;				// How many traversers are here right now
+	protected long visitEnd;			// When the last one left (System.nanoTime())
+	protected float glow;				// How highlighted this node is right now, 0..1
+	protected boolean glowing;			// Is the Score keeping track of this node's glow?
+	
 	protected MetaNode metaNode;		// Numerical ID of the MetaNode that contains this Node. If this Node is not
 									// contained within a MetaNode, this value is -1.
 
-	/*** MIDI CONTROL ***/
-	protected static Receiver midisend;
-
-	/*** GRAPHICAL FX ***/
-	protected static PImage img;
-	
 	/**
 	 * CONSTRUCTOR
 	 * @param parent - PApplet that will do the rendering
@@ -72,6 +76,8 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	 */
 	public Node(GenSeq parent, int x, int y) {
 		super(parent);
+		id = nextID++;
+		serial = -1;
 		metaNode = null;
 
 		setX(x);
@@ -86,42 +92,11 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 		legato = true;
 		eventList = new ArrayList<NodeEvent>();
 
-		// Set up MIDI receiver
-		try {
-			midisend = MidiCommon.getMidiDevice().getReceiver();
-		} catch (Exception e) {
-
-			// If that failed, try again with the default receiver
-			try {
-				midisend = MidiSystem.getReceiver();
-			} catch (MidiUnavailableException e1) {
-				System.err.println("Could not open the default MIDI receiver. Check that other sequencer applications "
-						+ "have not reserved this device and try again.");
-				e.printStackTrace();
-			}
-
-		}
-
 		// Create an event to be played on this node. Make it a "REST"
 		eventList.add(new NodeEvent());
 		
-		// Do graphical setup
-		int imgw = getWidth() + SELECT_HALO;
-		int imgh = getHeight() + SELECT_HALO;
-		img = new PImage(imgw, imgh, PApplet.ARGB);
-		img.loadPixels();
-		for (int i=0; i<imgh; i++)
-			for (int j=0; j<imgw; j++) {
-				float dist = (float)Math.sqrt(Math.pow(i - (imgh/2.0), 2) + Math.pow(j - (imgw/2.0), 2));
-				img.pixels[i*imgw + j] = parent.color(SELECT_HALO_RED,
-						SELECT_HALO_GREEN,
-						SELECT_HALO_BLUE,
-						255.0f - constrain(
-								(float)(  2.0f*255.0f*dist/(float)(imgw >= imgh? imgw : imgh)),
-								0.0f, 255.0f)
-								);
-			}
-		img.updatePixels();
+		// Nothing to draw yet: Nodes look the same as others of their size,
+		// so they share sprites from the SpriteAtlas.
 		selected = false;
 	}
 	
@@ -134,6 +109,8 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	 */
 	public Node(Node n) {
 		super(n.parent);
+		id = nextID++;
+		serial = -1;
 		
 		edges = new ArrayList<Edge>();
 		inboundEdges = new ArrayList<Edge>();
@@ -146,8 +123,7 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 		eventList.addAll(n.eventList);
 		selected = false;
 
-		// N.B.: "midisend" and "img" fields are already present, as they are static
-		// Also, Edges have to be created from scratch again!
+		// N.B.: Edges have to be created from scratch again!
 	}
 	
 	public Node copy() {
@@ -155,38 +131,90 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	}
 
 	/**
-	 * setReceiver() - Change all nodes' MIDI receiver.
-	 * 
-	 * @param r - New MIDI receiver that will receive midi messages
-	 * from all nodes.
-	 */
-	public static void setReceiver(Receiver r) {
-		midisend = r;
+	 * render(PGraphics pg) - draw this object
+	 *
+	 **/
+	public void render(PGraphics pg) {
+		pg.imageMode(PApplet.CORNER);
+		
+		if (selected) {
+			PImage halo = SpriteAtlas.get(this, SpriteAtlas.HALO);
+			pg.image(halo, x - halo.width/2.0f, y - halo.height/2.0f);
+		}
+		
+		blit(pg, SpriteAtlas.get(this, glyph(false)));
+		
+		// Playing (or just played): fade the highlighted glyph in over the top
+		if (glow > 0.0f) {
+			pg.tint(255, 255.0f * glow);
+			blit(pg, SpriteAtlas.get(this, glyph(true)));
+			pg.noTint();
+		}
 	}
-
-	
-	
-	
-	
 	
+	/**
+	 * renderStatic(PGraphics pg) - draw this object, not selected and not playing
+	 *
+	 **/
+	public void renderStatic(PGraphics pg) {
+		pg.imageMode(PApplet.CORNER);
+		blit(pg, SpriteAtlas.get(this, glyph(false)));
+	}
 	
 	/**
-	 * render() - draw this object
+	 * renderSimple(PGraphics pg, float scale) - just a dot in this node's color,
+	 * on a bigger one in the halo's color if it's selected
 	 *
 	 **/
-	public void render() {
-		setupDrawPrefs();
-
-		parent.pushMatrix();
-		parent.translate(x, y);
-		
+	public void renderSimple(PGraphics pg, float scale) {
 		if (selected) {
-			parent.imageMode(PApplet.CENTER);
-			parent.image(img, 0, 0);
+			pg.stroke(SELECT_HALO_RED, SELECT_HALO_GREEN, SELECT_HALO_BLUE);
+			pg.strokeWeight(Math.max((w + SELECT_HALO) * scale, 2 * SIMPLE_POINT_SIZE) / scale);
+			pg.point(x, y);
 		}
 		
-		parent.ellipse(0, 0, w, w);
-		parent.popMatrix();
+		pg.stroke(r + (HIGHLIGHT_RED - r)*glow, g + (HIGHLIGHT_GREEN - g)*glow, b + (HIGHLIGHT_BLUE - b)*glow, a);
+		pg.strokeWeight(Math.max(w * scale, SIMPLE_POINT_SIZE) / scale);
+		pg.point(x, y);
+	}
+	
+	/**
+	 * glyph(boolean lit)
+	 * 
+	 * @param lit - Whether this node is playing
+	 * @return The SpriteAtlas glyph this node is drawn with.
+	 */
+	protected int glyph(boolean lit) {
+		if (lit)
+			return SpriteAtlas.LIT_NODE;
+		return (prime? SpriteAtlas.PRIME_NODE : SpriteAtlas.NODE);
+	}
+	
+	/**
+	 * drawGlyph(PGraphics pg, int glyph, int pad)
+	 * 
+	 * Draw a sprite for the SpriteAtlas. Only called once per glyph and size.
+	 * 
+	 * @param pg - The sprite
+	 * @param glyph - Which glyph (see glyph())
+	 * @param pad - Where the glyph's top-left corner goes on the sprite
+	 */
+	protected void drawGlyph(PGraphics pg, int glyph, int pad) {
+		if (SpriteAtlas.LIT_NODE == glyph)
+			setupHighlightDrawPrefs(pg);
+		else
+			setupStaticDrawPrefs(pg);
+		
+		pg.ellipse(pad + w/2.0f, pad + w/2.0f, w, w);
+	}
+	
+	/**
+	 * blit(PGraphics pg, PImage sprite)
+	 * 
+	 * Copy one of this node's sprites to where it should be on pg.
+	 */
+	protected void blit(PGraphics pg, PImage sprite) {
+		pg.image(sprite, x - w/2.0f - SpriteAtlas.PAD, y - w/2.0f - SpriteAtlas.PAD);
 	}
 
 	
@@ -205,64 +233,40 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 		throws InvalidMidiDataException {
 
 		// What event shall we play?
-		double lsum = 0.0;
-		for (NodeEvent ne : eventList)
-			lsum += ne.getLikelihood();
-
-		Random rand = new Random();
-		double evDecider = rand.nextDouble() * lsum;
-		NodeEvent theEvent = null;
-
-		Iterator<NodeEvent> i = eventList.iterator();
-		while (evDecider > 0.0) {
-			theEvent = i.next();
-			evDecider -= theEvent.getLikelihood();
-		}
-
-		ArrayList<Note> notes = theEvent.getNotes();
-
-		ShortMessage[] messages = null;
-
+		NodeEvent theEvent = t.chooseEvent();
+		if (null == theEvent)
+			return lastEvent;
+
+		// Messages come from the MessageCache, and the lists are walked by index,
+		// so playing an event allocates nothing. The traverser knows where its output
+		// goes and when (in device time) this tick is supposed to sound, so it
+		// doesn't matter how late we are.
+		
 		// Check to see if the event is a REST event
 		if (NodeEvent.TYPE_REST == theEvent.getType()) {
-			messages = new ShortMessage[lastEvent.getNotes().size()];
-			
-			Iterator<Note> lei = lastEvent.getNotes().iterator();
-			for (int j = 0; j<messages.length; j++) {
-				Note curr = lei.next();
-				
-				messages[j] = new ShortMessage();
-				messages[j].setMessage(ShortMessage.NOTE_OFF, 0, curr.getPitch(), curr.getVelocity());
+			if (null != lastEvent) {
+				ArrayList<Note> lastNotes = lastEvent.getNotes();
+				for (int j = 0; j<lastNotes.size(); j++) {
+					Note curr = lastNotes.get(j);
+					
+					// Rests have nothing to turn off
+					ShortMessage msg = MessageCache.noteOff(curr.getPitch(), curr.getVelocity());
+					if (null != msg)
+						t.send(msg);
+				}
 			}
 		}
 		else {
-			messages = new ShortMessage[notes.size()];
-			//		// These will be used to calculate the timestamp on the MidiMessages.
-			//		// Some amount of time is required to do all the constructing of the messages,
-			//		// plus time taken by the operating system, other threads, etc. This will help
-			//		// to compensate for that time taken, in order to ensure our MIDI timings come
-			//		// out correctly.
-			//		long[] creationTimes = new long[notes.size()];
-			//		long currTime = ((GenSeq)parent).getMidiDevice().getMicrosecondPosition();
-			//		
-			for (int j = 0; j<messages.length; j++) {
+			ArrayList<Note> notes = theEvent.getNotes();
+			for (int j = 0; j<notes.size(); j++) {
 				Note n = notes.get(j);
 
-				messages[j] = new ShortMessage();
-
-				// setMessage(COMMAND, MIDI CHANNEL, MIDI NOTE, VELOCITY)
-				// TODO: Will we support multiple MIDI channels?
-				messages[j].setMessage(ShortMessage.NOTE_ON, 0, n.getPitch(), n.getVelocity());
+				ShortMessage msg = MessageCache.noteOn(n.getPitch(), n.getVelocity());
+				if (null != msg)
+					t.send(msg);
 			}
-
 		}
 
-		// Two for-loops for minimum latency
-		for (ShortMessage msg : messages)
-			midisend.send(msg, 0);
-
-		highlight();
-
 		return theEvent;
 		
 	}
@@ -278,16 +282,9 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	 */
 	public void stop(ScoreTraverser t) throws InvalidMidiDataException {
 
-		// Dummy stop
-		ShortMessage msg = new ShortMessage();
-		msg.setMessage(ShortMessage.NOTE_OFF, 1, 60, 100);
-
-		colorize();
+		// Notes are turned off by whatever plays next (see respond()); and the
+		// highlight is the draw loop's business (see VisitFeed).
 		
-		// Call stop() method in containing MetaNode, if there is one
-		if (null != metaNode)
-			metaNode.stop(t);
-			
 	}
 
 	/**
@@ -298,8 +295,10 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	public void registerEdge(Edge e) {
 		if (e.getDestination().equals(this))
 			inboundEdges.add(e);
-		else
+		else {
 			outboundEdges.add(e);
+			edgeTable = null;
+		}
 
 		edges.add(e);
 	}
@@ -313,10 +312,44 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	public boolean unregisterEdge(Edge e) {
 		//if (! inboundEdges.remove(e))
 		inboundEdges.remove(e);
-			outboundEdges.remove(e);
+		if (outboundEdges.remove(e))
+			edgeTable = null;
 			
 		return edges.remove(e);
 	}
+	
+	/**
+	 * edgeChanged(Edge e) - Let this node know that the likelihood of edge e
+	 * has changed.
+	 * 
+	 * @param e - The changed edge.
+	 */
+	void edgeChanged(Edge e) {
+		// Cheaper than checking that e is one of ours
+		edgeTable = null;
+	}
+	
+	/**
+	 * getEdgeTable()
+	 * 
+	 * @return A table that picks one of this node's outbound edges according
+	 * to their likelihoods in constant time. The table is only rebuilt after
+	 * edges are registered/unregistered, or one of them changes its likelihood.
+	 */
+	public AliasTable<Edge> getEdgeTable() {
+		AliasTable<Edge> table = edgeTable;
+		
+		if (null == table) {
+			double[] weights = new double[outboundEdges.size()];
+			for (int i = 0; i<weights.length; i++)
+				weights[i] = outboundEdges.get(i).getLikelihood();
+			
+			table = new AliasTable<Edge>(outboundEdges, weights);
+			edgeTable = table;
+		}
+		
+		return table;
+	}
 
 	/**
 	 * getEdges() - get all edges into or out of this node.
@@ -404,21 +437,46 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	 */
 	public void setEventList(ArrayList<NodeEvent> notes) {
 		this.eventList = notes;
+		
+		// Rebuild the likelihood table next time it's needed
+		eventTable = null;
+	}
+	
+	/**
+	 * getEventTable()
+	 * 
+	 * @return - A table that picks one of this node's events according to
+	 * their likelihoods in constant time. The table is only rebuilt after
+	 * setEventList() or refresh() have been called.
+	 */
+	public AliasTable<NodeEvent> getEventTable() {
+		AliasTable<NodeEvent> table = eventTable;
+		
+		if (null == table) {
+			double[] weights = new double[eventList.size()];
+			for (int i = 0; i<weights.length; i++)
+				weights[i] = eventList.get(i).getLikelihood();
+			
+			table = new AliasTable<NodeEvent>(eventList, weights);
+			eventTable = table;
+		}
+		
+		return table;
 	}
 
 	/**
-	 * getMetaID()
+	 * getMetaNode()
 	 * 
-	 * @return The metaID that identifies the MetaNode to which this Node belongs.
+	 * @return The MetaNode to which this Node belongs, or null.
 	 */
-	protected MetaNode getMetaNode() {
+	public MetaNode getMetaNode() {
 		return metaNode;
 	}
 
 	/**
-	 * setMetaID(int metaID)
+	 * setMetaNode(MetaNode metaNode)
 	 * 
-	 * @param metaID - The ID of the MetaNode that contains this Node.
+	 * @param metaNode - The MetaNode that contains this Node.
 	 */
 	protected void setMetaNode(MetaNode metaNode) {
 		this.metaNode = metaNode;
@@ -438,9 +496,13 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	 * refresh()
 	 * 
 	 * Refreshes this node's properties after editing them inside NoteAttributesWindow
+	 * (or after changing the likelihood of one of its events).
 	 */
 	@SuppressWarnings("unchecked")
 	public void refresh() {
+		// The events' likelihoods may have changed
+		eventTable = null;
+		
 		// Whether this node is prime or not
 		//		prime = (Boolean)attributes.get("prime").getData();
 		//		notes= (ArrayList<Note>)attributes.get("notes").getData();
@@ -448,6 +510,31 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 		colorize();
 	}
 
+	/**
+	 * getID()
+	 * 
+	 * @return A number identifying this Node, unique among Nodes. It never
+	 * changes; copies of this Node get IDs of their own.
+	 */
+	public int getID() {
+		return id;
+	}
+	
+	/**
+	 * getSerial()
+	 * 
+	 * @return The number this Node goes by in its Score's saved state (score
+	 * files and the edit journal), which stays the same from one session to
+	 * the next. -1 until the Node is put on a Score.
+	 */
+	public int getSerial() {
+		return serial;
+	}
+	
+	public void setSerial(int serial) {
+		this.serial = serial;
+	}
+	
 	/**
 	 * select() - Show this node as selected
 	 */
@@ -466,18 +553,23 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 	/**
 	 * equals()
 	 * 
-	 * Returns true if this node is equal with respect to graphical position
-	 * to another node.
+	 * Returns true if n is this very node (same ID). Where the nodes are
+	 * doesn't matter: two nodes can sit on top of each other and still be
+	 * different nodes. To compare contents, use resembles().
 	 * 
 	 * @param n - Node of comparison.
-	 * @return - True if the nodes are equal w.r.t. location, false otherwise.
+	 * @return - True if the nodes have the same ID, false otherwise.
 	 */
 	public boolean equals(Node n) {
-		return (getX() == n.getX() &&
-				getY() == n.getY() &&
-				n.resembles(this) &&
-				((null == getMetaNode() && null == n.getMetaNode()) ||
-						getMetaNode().equals(n.getMetaNode())));
+		return (null != n && n.getID() == id);
+	}
+	
+	public boolean equals(Object o) {
+		return (o instanceof Node && equals((Node)o));
+	}
+	
+	public int hashCode() {
+		return id;
 	}
 	
 	/**
@@ -534,9 +626,105 @@ public class Node extends DrawableObject implements MIDIConstants, Playable {
 		}
 	}
 
-	protected void highlight() {
-		setColor(HIGHLIGHT_RED, HIGHLIGHT_GREEN, HIGHLIGHT_BLUE);
-		setStrokeColor(HIGHLIGHT_STROKE_RED, HIGHLIGHT_STROKE_GREEN, HIGHLIGHT_STROKE_BLUE);
+	/**
+	 * visitStarted(long time), visitEnded(long time)
+	 * 
+	 * A traverser got to / left this node. Draw thread only.
+	 * 
+	 * @param time - When, by System.nanoTime()
+	 */
+	public void visitStarted(long time) {
+		visitors++;
+	}
+	
+	public void visitEnded(long time) {
+		if (visitors > 0)
+			visitors--;
+		visitEnd = time;
+	}
+	
+	/**
+	 * updateGlow(long now)
+	 * 
+	 * Work out how highlighted this node should be: fully while a traverser
+	 * is on it, then fading out over GLOW_FADE. Draw thread only.
+	 * 
+	 * @param now - System.nanoTime()
+	 * @return The new glow, 0..1. Zero means the highlight is over.
+	 */
+	public float updateGlow(long now) {
+		if (visitors > 0)
+			glow = 1.0f;
+		else {
+			long since = now - visitEnd;
+			glow = (since >= GLOW_FADE? 0.0f : 1.0f - (float)since / GLOW_FADE);
+		}
+		
+		return glow;
+	}
+	
+	/**
+	 * clearGlow() - Forget about any visits. Draw thread only.
+	 */
+	public void clearGlow() {
+		visitors = 0;
+		glow = 0.0f;
+	}
+	
+	/**
+	 * getGlow()
+	 * 
+	 * @return How highlighted this node was at the last updateGlow(), 0..1.
+	 */
+	public float getGlow() {
+		return glow;
+	}
+	
+	/**
+	 * isGlowing(), setGlowing(boolean glowing)
+	 * 
+	 * Bookkeeping for the Score: whether it's already tracking this node's glow.
+	 */
+	public boolean isGlowing() {
+		return glowing;
+	}
+	
+	public void setGlowing(boolean glowing) {
+		this.glowing = glowing;
+	}
+	
+	/**
+	 * setupDrawPrefs(PGraphics pg)
+	 * 
+	 * Like DrawableObject's, but in highlight colors while the node is playing.
+	 */
+	public void setupDrawPrefs(PGraphics pg) {
+		if (glow <= 0.0f) {
+			super.setupDrawPrefs(pg);
+			return;
+		}
+		
+		setupHighlightDrawPrefs(pg);
+	}
+	
+	/**
+	 * setupHighlightDrawPrefs(PGraphics pg)
+	 * 
+	 * Draw preferences for a playing node.
+	 */
+	protected void setupHighlightDrawPrefs(PGraphics pg) {
+		pg.fill(HIGHLIGHT_RED, HIGHLIGHT_GREEN, HIGHLIGHT_BLUE, a);
+		pg.stroke(HIGHLIGHT_STROKE_RED, HIGHLIGHT_STROKE_GREEN, HIGHLIGHT_STROKE_BLUE, sa);
+		pg.strokeWeight(strokeWeight);
+	}
+	
+	/**
+	 * setupStaticDrawPrefs(PGraphics pg)
+	 * 
+	 * DrawableObject's draw preferences, ignoring any highlight.
+	 */
+	protected void setupStaticDrawPrefs(PGraphics pg) {
+		super.setupDrawPrefs(pg);
 	}
 	
 	protected float constrain(float x, float low, float high) {
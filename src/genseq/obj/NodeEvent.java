@@ -96,6 +96,15 @@ public class NodeEvent implements MIDIConstants {
 		return likelihood;
 	}
 	
+	/**
+	 * setLikelihood(double likelihood)
+	 * 
+	 * N.B. Events can be shared between Nodes, so an event can't tell the
+	 * Nodes holding it. Call refresh() on them afterwards.
+	 * 
+	 * @param likelihood - How likely this event is to be chosen, relative to
+	 * the other events of its Node.
+	 */
 	public void setLikelihood(double likelihood) {
 		this.likelihood = likelihood;
 	}
@@ -0,0 +1,133 @@
+/**
+ * SpriteAtlas.java
+ *
+ * Pre-drawn images of everything a Node can look like: plain, prime and
+ * playing Nodes, the same for MetaNodes, and the selection halo. Each
+ * sprite is drawn once, the first time a Node of that size needs it, and
+ * from then on drawing a Node is just a matter of copying images. Making
+ * a Node doesn't draw anything at all.
+ *
+ * Glyph sprites are SIDE(size) pixels square, with the glyph PAD pixels
+ * in from the top-left corner (room for its stroke). Halo sprites are
+ * size + Node.SELECT_HALO pixels square, centered on the Node.
+ *
+ * Not thread-safe. Sprites are only asked for while drawing, on the
+ * Processing thread.
+ *
+ */
+
+package genseq.obj;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+public class SpriteAtlas {
+
+	/*** GLYPHS ***/
+	public static final int NODE = 0;
+	public static final int PRIME_NODE = 1;
+	public static final int LIT_NODE = 2;
+	public static final int META_NODE = 3;
+	public static final int PRIME_META_NODE = 4;
+	public static final int LIT_META_NODE = 5;
+	public static final int HALO = 6;
+	private static final int GLYPHS = 7;
+
+	/*** INTERNAL CONSTANTS ***/
+	public static final int PAD = 4;		// Room around a glyph for its stroke
+
+	/*** INTERNAL CONTROL ***/
+	private static PImage[][] sprites = new PImage[0][];	// Indexed by [size][glyph]
+
+	/**
+	 * get(Node n, int glyph)
+	 *
+	 * @param n - The Node that's about to be drawn. Its width decides which
+	 * sprite is used, and it draws the sprite if there isn't one yet.
+	 * @param glyph - One of the glyphs above (NODE, HALO...)
+	 * @return The sprite.
+	 */
+	public static PImage get(Node n, int glyph) {
+		int size = n.getWidth();
+		if (size >= sprites.length) {
+			PImage[][] grown = new PImage[size + 1][];
+			System.arraycopy(sprites, 0, grown, 0, sprites.length);
+			sprites = grown;
+		}
+
+		PImage[] row = sprites[size];
+		if (null == row) {
+			row = new PImage[GLYPHS];
+			sprites[size] = row;
+		}
+
+		PImage sprite = row[glyph];
+		if (null == sprite) {
+			sprite = (HALO == glyph? drawHalo(n.parent, size) : drawGlyph(n, glyph, size));
+			row[glyph] = sprite;
+		}
+
+		return sprite;
+	}
+
+	/**
+	 * side(int size)
+	 *
+	 * @return The width (and height) of glyph sprites for Nodes of the given size.
+	 */
+	public static int side(int size) {
+		return size + 2*PAD;
+	}
+
+	/**
+	 * clear()
+	 *
+	 * Forget every sprite, so they are all drawn again as they're needed.
+	 */
+	public static void clear() {
+		sprites = new PImage[0][];
+	}
+
+
+	/*****************
+	 * PRIVATE METHODS
+	 *****************/
+
+	private static PImage drawGlyph(Node n, int glyph, int size) {
+		PGraphics pg = n.parent.createGraphics(side(size), side(size), PApplet.JAVA2D);
+		pg.beginDraw();
+		pg.smooth();
+		pg.background(0, 0);
+		n.drawGlyph(pg, glyph, PAD);
+		pg.endDraw();
+
+		return pg;
+	}
+
+	/**
+	 * drawHalo(PApplet parent, int size)
+	 *
+	 * The glow behind selected Nodes: opaque in the middle, fading out to
+	 * nothing at the edge of the sprite.
+	 */
+	private static PImage drawHalo(PApplet parent, int size) {
+		int side = size + Node.SELECT_HALO;
+		float mid = side/2.0f;
+		PImage img = new PImage(side, side, PApplet.ARGB);
+
+		img.loadPixels();
+		for (int i=0; i<side; i++)
+			for (int j=0; j<side; j++) {
+				float dist = (float)Math.sqrt((i - mid)*(i - mid) + (j - mid)*(j - mid));
+				float alpha = 255.0f - 2.0f*255.0f*dist/side;
+				img.pixels[i*side + j] = parent.color(Node.SELECT_HALO_RED,
+						Node.SELECT_HALO_GREEN,
+						Node.SELECT_HALO_BLUE,
+						(alpha < 0.0f? 0.0f : alpha));
+			}
+		img.updatePixels();
+
+		return img;
+	}
+}
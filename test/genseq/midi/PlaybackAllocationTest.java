@@ -0,0 +1,153 @@
+/**
+ * PlaybackAllocationTest.java
+ *
+ * Checks that playback doesn't allocate: once it has warmed up, stepping
+ * a TraverserEngine through a score of notes, chords and rests makes no
+ * garbage on the playback thread (see MessageCache). It counts the bytes
+ * the thread allocates with ThreadMXBean.getThreadAllocatedBytes(), so
+ * it needs a JVM that supports that (e.g. HotSpot).
+ *
+ * Run it from the project root, with $CORE pointing at Processing's
+ * core.jar:
+ *
+ * 	javac -cp $CORE -d bin $(find src test -name '*.java')
+ * 	java -cp $CORE:bin genseq.midi.PlaybackAllocationTest
+ *
+ * It exits with status 1 if anything was allocated.
+ *
+ */
+
+package genseq.midi;
+
+import genseq.obj.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+public class PlaybackAllocationTest implements MIDIConstants {
+
+	/*** INTERNAL CONSTANTS ***/
+	private static final int NODES = 200;
+	private static final int TRAVERSERS = 50;
+	private static final long WARMUP_TICKS = 200000;
+	private static final long TICKS = 1000000;
+
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if (! threads.isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM can't count allocated bytes");
+			System.exit(1);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		Score score = buildScore();
+		score.flush();
+		ScoreSnapshot snap = score.getSnapshot();
+
+		CountingReceiver out = new CountingReceiver();
+		TraverserEngine engine = new TraverserEngine(out, snap);
+		RandomStream master = new RandomStream(1L);
+		for (int i = 0; i<snap.getPrimeCount(); i++)
+			engine.add(new ScoreTraverser(snap, snap.getPrime(i), master.split()));
+
+		long tick = 0;
+		for (; tick<WARMUP_TICKS; tick++)
+			engine.tick(tick, tick);
+
+		long id = Thread.currentThread().getId();
+		long sent = out.count;
+		// What asking costs, so it can be taken off
+		long before = threads.getThreadAllocatedBytes(id);
+		long overhead = threads.getThreadAllocatedBytes(id) - before;
+
+		before = threads.getThreadAllocatedBytes(id);
+		for (; tick<WARMUP_TICKS + TICKS; tick++)
+			engine.tick(tick, tick);
+		long allocated = threads.getThreadAllocatedBytes(id) - before - overhead;
+		sent = out.count - sent;
+
+		System.out.println(TICKS+" ticks, "+engine.size()+" traversers, "+sent+" messages, "
+				+allocated+" bytes allocated");
+
+		if (0 == sent) {
+			System.err.println("FAILED: nothing was played");
+			System.exit(1);
+		}
+		if (allocated > 0) {
+			System.err.println("FAILED: playback allocated");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * buildScore() - A ring of Nodes, each one a note, a chord or a rest,
+	 * with a shortcut every few Nodes so there are choices to make. Every
+	 * few Nodes is prime.
+	 */
+	private static Score buildScore() {
+		Score score = new Score(null);
+
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		for (int i = 0; i<NODES; i++) {
+			Node n = new Node(null, i % 20 * 40, i / 20 * 40);
+
+			ArrayList<NodeEvent> events = new ArrayList<NodeEvent>();
+			events.add(new NodeEvent(new Note(48 + i % 24, 64 + i % 64)));
+			ArrayList<Note> chord = new ArrayList<Note>();
+			chord.add(new Note(60 + i % 12, 90));
+			chord.add(new Note(64 + i % 12, 90));
+			chord.add(new Note(67 + i % 12, 90));
+			events.add(new NodeEvent(chord));
+			if (0 == i % 3)
+				events.add(new NodeEvent(new Note(REST)));
+			n.setEventList(events);
+			n.setLegato(0 == i % 2);
+			n.setPrime(0 == i % (NODES / TRAVERSERS));
+
+			nodes.add(n);
+		}
+		score.addNodes(nodes);
+
+		ArrayList<Edge> edges = new ArrayList<Edge>();
+		for (int i = 0; i<NODES; i++) {
+			edges.add(connect(nodes.get(i), nodes.get((i + 1) % NODES)));
+			if (0 == i % 5)
+				edges.add(connect(nodes.get(i), nodes.get((i + 7) % NODES)));
+		}
+		score.addEdges(edges);
+
+		return score;
+	}
+
+	private static Edge connect(Node from, Node to) {
+		Edge e = new Edge(null, from, to);
+		from.registerEdge(e);
+		to.registerEdge(e);
+		return e;
+	}
+
+
+	/*******************
+	 * INTERNAL CLASSES
+	 ******************/
+
+	/**
+	 * CountingReceiver - Counts what it's sent, and nothing else.
+	 */
+	private static class CountingReceiver implements Receiver {
+
+		private long count;
+
+		public void send(MidiMessage message, long timeStamp) {
+			count++;
+		}
+
+		public void close() {
+
+		}
+
+	}
+
+}